@@ -0,0 +1,240 @@
+/*
+   Briggs Richardson
+
+   The chess program's classes are in the default package, which a class
+   in a package can't name, and JMH only runs benchmarks that are in a
+   package. Engine calls the LogicBoard's public methods through method
+   handles instead. The handles are static final, so the JIT compiler
+   inlines them the same as direct calls, and they don't show up in the
+   measurements. A board is passed around as an Object.
+*/
+
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+final class Engine
+{
+    private static final Class<?> LOGIC_BOARD = logicBoardClass();
+
+    private static final MethodHandle NEW_BOARD = constructor();
+    private static final MethodHandle SET_POSITION =
+            method("setPosition", void.class, CharSequence.class);
+    private static final MethodHandle IS_WHITE_TURN = method("getIsWhiteTurn", boolean.class);
+    private static final MethodHandle IS_VALID =
+            method("isValid", boolean.class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle STORE_POSSIBLE_MOVES =
+            method("storePossibleMoves", Object.class, boolean.class);
+    private static final MethodHandle EVALUATE_POSITION = method("evaluatePosition", double.class);
+    private static final MethodHandle ADD_ON_STACK =
+            method("addOnStack", void.class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle UPDATE_BOARD =
+            method("updateBoard", void.class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle UNDO = method("undo", void.class);
+    private static final MethodHandle KING_IN_CHECK = method("kingInCheck", boolean.class, boolean.class);
+    private static final MethodHandle SEARCH_TO_DEPTH = method("searchToDepth", double.class, int.class);
+    private static final MethodHandle CLEAR_TABLE = method("clearTable", void.class);
+
+    private Engine()
+    {
+    }
+
+    // Returns a LogicBoard set up with the position of a FEN string
+    static Object newBoard(String fen)
+    {
+        try
+        {
+            Object board = (Object) NEW_BOARD.invokeExact();
+            SET_POSITION.invokeExact(board, (CharSequence) fen);
+            return board;
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean isWhiteTurn(Object board)
+    {
+        try
+        {
+            return (boolean) IS_WHITE_TURN.invokeExact(board);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean isValid(Object board, int r1, int c1, int r2, int c2)
+    {
+        try
+        {
+            return (boolean) IS_VALID.invokeExact(board, r1, c1, r2, c2);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    // Returns the LogicBoard's array of PossibleCoordinates
+    static Object storePossibleMoves(Object board, boolean isWhite)
+    {
+        try
+        {
+            return (Object) STORE_POSSIBLE_MOVES.invokeExact(board, isWhite);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static double evaluatePosition(Object board)
+    {
+        try
+        {
+            return (double) EVALUATE_POSITION.invokeExact(board);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void addOnStack(Object board, int r1, int c1, int r2, int c2)
+    {
+        try
+        {
+            ADD_ON_STACK.invokeExact(board, r1, c1, r2, c2);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void updateBoard(Object board, int r1, int c1, int r2, int c2)
+    {
+        try
+        {
+            UPDATE_BOARD.invokeExact(board, r1, c1, r2, c2);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void undo(Object board)
+    {
+        try
+        {
+            UNDO.invokeExact(board);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static boolean kingInCheck(Object board, boolean isWhite)
+    {
+        try
+        {
+            return (boolean) KING_IN_CHECK.invokeExact(board, isWhite);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static double searchToDepth(Object board, int depth)
+    {
+        try
+        {
+            return (double) SEARCH_TO_DEPTH.invokeExact(board, depth);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    static void clearTable(Object board)
+    {
+        try
+        {
+            CLEAR_TABLE.invokeExact(board);
+        }
+        catch (Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    private static Class<?> logicBoardClass()
+    {
+        try
+        {
+            return Class.forName("LogicBoard");
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor()
+    {
+        try
+        {
+            MethodHandle handle = MethodHandles.publicLookup().findConstructor(LOGIC_BOARD,
+                    MethodType.methodType(void.class));
+            return handle.asType(MethodType.methodType(Object.class));
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Looks up a public method of the LogicBoard, typed to take the board as
+    // an Object. A return type of Object stands for any reference type.
+    private static MethodHandle method(String name, Class<?> returns, Class<?>... params)
+    {
+        try
+        {
+            for (Method m : LOGIC_BOARD.getMethods())
+            {
+                if (m.getName().equals(name) &&
+                        Arrays.equals(m.getParameterTypes(), params))
+                {
+                    MethodHandle handle = MethodHandles.publicLookup().unreflect(m);
+                    return handle.asType(MethodType.methodType(returns, params)
+                            .insertParameterTypes(0, Object.class));
+                }
+            }
+            throw new NoSuchMethodException("LogicBoard." + name);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t)
+    {
+        if (t instanceof Error)
+            throw (Error) t;
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        return new RuntimeException(t);
+    }
+}
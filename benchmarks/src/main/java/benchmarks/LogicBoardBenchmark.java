@@ -0,0 +1,111 @@
+/*
+   Briggs Richardson
+
+   Benchmarks of the LogicBoard methods the GUI and the search call the
+   most: checking a move, listing every move, evaluating, making and
+   undoing a move, and the check test. Each is measured on every position
+   of Positions. The benchmarks that take a move cycle through the legal
+   moves of the position, one move per call.
+*/
+
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogicBoardBenchmark
+{
+    @Param({"opening", "middlegame", "endgame"})
+    public String position;
+
+    private Object board;
+    private boolean isWhite;
+    private int[] moves;    // r1, c1, r2, c2 of each legal move
+    private int next;       // Index into moves of the next move to use
+
+    @Setup
+    public void setUp()
+    {
+        board = Engine.newBoard(Positions.fen(position));
+        isWhite = Engine.isWhiteTurn(board);
+
+        // Every (from, to) pair isValid accepts
+        int[] found = new int[64 * 64 * 4];
+        int count = 0;
+        for (int from = 0; from < 64; ++from)
+        {
+            for (int to = 0; to < 64; ++to)
+            {
+                if (Engine.isValid(board, from / 8, from % 8, to / 8, to % 8))
+                {
+                    found[count++] = from / 8;
+                    found[count++] = from % 8;
+                    found[count++] = to / 8;
+                    found[count++] = to % 8;
+                }
+            }
+        }
+        moves = Arrays.copyOf(found, count);
+        next = 0;
+    }
+
+    // Returns the index of the next legal move, cycling back to the first
+    private int nextMove()
+    {
+        int i = next;
+        next = (i + 4 == moves.length)? 0 : i + 4;
+        return i;
+    }
+
+    @Benchmark
+    public boolean isValid()
+    {
+        int i = nextMove();
+        return Engine.isValid(board, moves[i], moves[i + 1], moves[i + 2], moves[i + 3]);
+    }
+
+    @Benchmark
+    public Object storePossibleMoves()
+    {
+        return Engine.storePossibleMoves(board, isWhite);
+    }
+
+    @Benchmark
+    public double evaluatePosition()
+    {
+        return Engine.evaluatePosition(board);
+    }
+
+    @Benchmark
+    public void updateBoardAndUndo()
+    {
+        int i = nextMove();
+        Engine.addOnStack(board, moves[i], moves[i + 1], moves[i + 2], moves[i + 3]);
+        Engine.updateBoard(board, moves[i], moves[i + 1], moves[i + 2], moves[i + 3]);
+        Engine.undo(board);
+    }
+
+    @Benchmark
+    public boolean kingInCheck()
+    {
+        return Engine.kingInCheck(board, isWhite);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+   Briggs Richardson
+
+   Times a fixed depth minimax search of each position of Positions. The
+   transposition table is emptied before every search, so no search is
+   helped by the ones before it.
+*/
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MinimaxBenchmark
+{
+    @Param({"opening", "middlegame", "endgame"})
+    public String position;
+
+    @Param({"4"})
+    public int depth;
+
+    private Object board;
+
+    @Setup
+    public void setUp()
+    {
+        board = Engine.newBoard(Positions.fen(position));
+    }
+
+    @Setup(Level.Invocation)
+    public void clearTable()
+    {
+        Engine.clearTable(board);
+    }
+
+    @Benchmark
+    public double minimax()
+    {
+        return Engine.searchToDepth(board, depth);
+    }
+}
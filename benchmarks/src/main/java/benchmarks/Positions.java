@@ -0,0 +1,30 @@
+/*
+   Briggs Richardson
+
+   The positions the benchmarks are run over, by name: one from the
+   opening, one from the middlegame and one from the endgame.
+*/
+
+package benchmarks;
+
+final class Positions
+{
+    private Positions()
+    {
+    }
+
+    static String fen(String name)
+    {
+        switch (name)
+        {
+            case "opening": // Italian game
+                return "r1bqk1nr/pppp1ppp/2n5/2b1p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4";
+            case "middlegame":
+                return "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10";
+            case "endgame": // Rook and pawns
+                return "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1";
+            default:
+                throw new IllegalArgumentException("No position " + name);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+   Briggs Richardson
+
+   Main class of the benchmarks jar. Runs the benchmarks like JMH's own
+   main (taking the same options), with the gc profiler added, so the
+   bytes allocated per operation are reported next to the times.
+*/
+
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class RunBenchmarks
+{
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+   Briggs Richardson
+
+   Measures how much memory the search allocates. Each of the benchmark
+   positions of SearchBenchmark is searched to a fixed depth with a single
+   thread, and the bytes the searching thread allocated (read from the
+   JVM's per-thread counter) are divided by the positions visited. The
+   garbage collections during the searches are counted as well.
+
+   Usage: java AllocationBenchmark [depth]
+*/
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+public class AllocationBenchmark
+{
+    public static void main(String[] args)
+    {
+        int depth = (args.length > 0)? Integer.parseInt(args[0]) : 6;
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // One untimed pass first, so the JIT compiler has warmed up
+        for (int i = 0; i < SearchBenchmark.POSITIONS.length; ++i)
+            search(SearchBenchmark.POSITIONS[i], depth);
+
+        System.out.println("Depth " + depth);
+        System.out.println("position        nodes         bytes   bytes/node");
+
+        long totalNodes = 0;
+        long totalBytes = 0;
+        long collections = collectionCount();
+        for (int i = 0; i < SearchBenchmark.POSITIONS.length; ++i)
+        {
+            LogicBoard logic = setUp(SearchBenchmark.POSITIONS[i], depth);
+            long before = threadBean.getThreadAllocatedBytes(thread);
+            logic.computerTurn();
+            long bytes = threadBean.getThreadAllocatedBytes(thread) - before;
+
+            totalNodes += logic.getNodes();
+            totalBytes += bytes;
+            System.out.printf("%8d %12d %13d %12.1f%n", i + 1, logic.getNodes(), bytes,
+                    (double) bytes / logic.getNodes());
+        }
+        System.out.printf("   total %12d %13d %12.1f%n", totalNodes, totalBytes,
+                (double) totalBytes / totalNodes);
+        System.out.println("Garbage collections: " + (collectionCount() - collections));
+    }
+
+    private static void search(String[] moves, int depth)
+    {
+        setUp(moves, depth).computerTurn();
+    }
+
+    // Returns a board with the moves played, set to search to the depth
+    private static LogicBoard setUp(String[] moves, int depth)
+    {
+        LogicBoard logic = new LogicBoard();
+        for (int i = 0; i < moves.length; ++i)
+            SearchBenchmark.play(logic, moves[i]);
+        logic.setMaxDepth(depth);
+        logic.setTimeBudget(24L * 60 * 60 * 1000); // No time limit
+        return logic;
+    }
+
+    private static long collectionCount()
+    {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+   Briggs Richardson
+
+   AsciiChars lets text stored as bytes (one byte per character, as in a
+   FEN or EPD file) be read as a CharSequence without copying it into a
+   String. It is a view of part of a ByteBuffer, which can be pointed at
+   another part with set, so one instance serves any number of reads.
+*/
+
+import java.nio.ByteBuffer;
+
+public class AsciiChars implements CharSequence
+{
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+
+    // Points the view at bytes start to end (exclusive) of a buffer
+    public void set(ByteBuffer buffer, int start, int end)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    public int length()
+    {
+        return end - start;
+    }
+
+    public char charAt(int index)
+    {
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int from, int to)
+    {
+        AsciiChars sub = new AsciiChars();
+        sub.set(buffer, start + from, start + to);
+        return sub;
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(length());
+        for (int i = start; i < end; ++i)
+            sb.append((char) (buffer.get(i) & 0xFF));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,318 @@
+/*
+   Briggs Richardson
+
+   The Bitboard class stores a chess position as a handful of 64-bit sets,
+   one bit per square. There is one set for every (colour, piece type) pair,
+   one set per colour, and one set of every occupied square. The LogicBoard
+   stores and searches over a Bitboard instead of an 8x8 array of Pieces, so
+   questions like "which squares does this knight attack" or "is anything
+   between these two squares" become a few AND / OR operations.
+
+   Squares are numbered the same way as the LogicBoard's rows and columns:
+   square = row * 8 + col. Row 0 is black's back rank, row 7 is white's,
+   so a white pawn moves towards lower square numbers.
+
+   The attack sets of the leaping pieces (knight, king, pawn captures) are
+   built once when the class loads. The sliding pieces look theirs up in
+   the SlidingAttacks tables.
+
+   The Bitboard also keeps the position's Zobrist key: the XOR of a random
+   number for every piece on its square. Putting, removing or moving a
+   piece XORs its numbers in or out, so the key is always up to date. The
+   LogicBoard XORs in the castling and En Passant keys as well.
+
+   In the same way, it keeps a running score: the sum of the values (given
+   by whoever creates the board) of every piece on its square. The
+   LogicBoard's values are material plus piece placement, so the score is
+   its evaluation of the position, without looking at every piece. The
+   square of each king is kept as well, for the check tests of the search.
+
+   Next to the sets, every square holds the code of its piece as a byte,
+   colour * 6 + type (or -1 when empty), so finding out what is on a square
+   is a single lookup. Tables indexed by the code give its type and colour.
+*/
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Bitboard
+{
+    // Piece types, used to index the piece sets
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+    public static final int EMPTY = -1;
+
+    // Colours
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    // Type and colour of each piece code, colour * 6 + type
+    static final int[] CODE_TYPE = {PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING,
+            PAWN, KNIGHT, BISHOP, ROOK, QUEEN, KING};
+    static final int[] CODE_COLOUR = {WHITE, WHITE, WHITE, WHITE, WHITE, WHITE,
+            BLACK, BLACK, BLACK, BLACK, BLACK, BLACK};
+
+    // Precomputed attack sets for the leaping pieces, indexed by square
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // Row / column steps to the eight neighbouring squares
+    private static final int[] RAY_ROW = {-1, 1, 0, 0, -1, -1, 1, 1};
+    private static final int[] RAY_COL = {0, 0, -1, 1, -1, 1, -1, 1};
+
+    // Zobrist keys, for every piece on every square, each combination of
+    // castling rights, each En Passant column, and black to move
+    static final long[][] PIECE_KEYS = new long[12][64];
+    static final long[] CASTLE_KEYS = new long[16];
+    static final long[] PASSANT_KEYS = new long[8];
+    static final long SIDE_KEY;
+
+    // pieces[colour * 6 + type] is the set of squares holding that piece
+    long[] pieces;
+    // colours[colour] is the set of squares holding a piece of that colour
+    long[] colours;
+    long occupied;
+    // squares[sq] is the code of the piece on the square, or -1
+    byte[] squares;
+    long key;
+    // kings[colour] is the square of that colour's king, or -1 if it has none
+    int[] kings;
+    // score is the sum of values[colour * 6 + type][square] of every piece
+    double score;
+    private double[][] values;
+
+    // Values of a board that doesn't keep a score
+    private static final double[][] NO_VALUES = new double[12][64];
+
+    static
+    {
+        int[] knightRow = {-2, -2, -1, -1, 1, 1, 2, 2};
+        int[] knightCol = {-1, 1, -2, 2, -2, 2, -1, 1};
+
+        for (int sq = 0; sq < 64; ++sq)
+        {
+            int r = sq / 8;
+            int c = sq % 8;
+            for (int i = 0; i < 8; ++i)
+            {
+                KNIGHT_ATTACKS[sq] |= bitAt(r + knightRow[i], c + knightCol[i]);
+                KING_ATTACKS[sq] |= bitAt(r + RAY_ROW[i], c + RAY_COL[i]);
+            }
+            // White pawns capture towards row 0, black pawns towards row 7
+            PAWN_ATTACKS[WHITE][sq] = bitAt(r - 1, c - 1) | bitAt(r - 1, c + 1);
+            PAWN_ATTACKS[BLACK][sq] = bitAt(r + 1, c - 1) | bitAt(r + 1, c + 1);
+        }
+
+        // A fixed seed, so keys are the same from one run to the next
+        Random random = new Random(20200514L);
+        for (int i = 0; i < 12; ++i)
+        {
+            for (int sq = 0; sq < 64; ++sq)
+                PIECE_KEYS[i][sq] = random.nextLong();
+        }
+        for (int i = 1; i < 16; ++i) // No castling rights hashes as 0
+            CASTLE_KEYS[i] = random.nextLong();
+        for (int c = 0; c < 8; ++c)
+            PASSANT_KEYS[c] = random.nextLong();
+        SIDE_KEY = random.nextLong();
+    }
+
+    public Bitboard()
+    {
+        this(NO_VALUES);
+    }
+
+    // Creates a board whose score adds up the given values
+    public Bitboard(double[][] values)
+    {
+        pieces = new long[12];
+        colours = new long[2];
+        kings = new int[] {-1, -1};
+        occupied = 0L;
+        squares = new byte[64];
+        Arrays.fill(squares, (byte) -1);
+        key = 0L;
+        score = 0.0;
+        this.values = values;
+    }
+
+    // Removes every piece from the board
+    public void clear()
+    {
+        for (int i = 0; i < 12; ++i)
+            pieces[i] = 0L;
+        colours[WHITE] = 0L;
+        colours[BLACK] = 0L;
+        kings[WHITE] = -1;
+        kings[BLACK] = -1;
+        occupied = 0L;
+        Arrays.fill(squares, (byte) -1);
+        key = 0L;
+        score = 0.0;
+    }
+
+    // Sets this board to the same position as another
+    public void copyFrom(Bitboard other)
+    {
+        System.arraycopy(other.pieces, 0, pieces, 0, 12);
+        colours[WHITE] = other.colours[WHITE];
+        colours[BLACK] = other.colours[BLACK];
+        kings[WHITE] = other.kings[WHITE];
+        kings[BLACK] = other.kings[BLACK];
+        occupied = other.occupied;
+        System.arraycopy(other.squares, 0, squares, 0, 64);
+        key = other.key;
+        score = other.score;
+    }
+
+    // Places a piece on an empty square
+    public void put(int colour, int type, int sq)
+    {
+        long b = bit(sq);
+        pieces[colour * 6 + type] |= b;
+        colours[colour] |= b;
+        occupied |= b;
+        squares[sq] = (byte) (colour * 6 + type);
+        key ^= PIECE_KEYS[colour * 6 + type][sq];
+        score += values[colour * 6 + type][sq];
+        if (type == KING)
+            kings[colour] = sq;
+    }
+
+    // Takes a piece off of its square
+    public void remove(int colour, int type, int sq)
+    {
+        long b = ~bit(sq);
+        pieces[colour * 6 + type] &= b;
+        colours[colour] &= b;
+        occupied &= b;
+        squares[sq] = -1;
+        key ^= PIECE_KEYS[colour * 6 + type][sq];
+        score -= values[colour * 6 + type][sq];
+        if (type == KING)
+            kings[colour] = -1;
+    }
+
+    // Moves a piece from one square to an empty square
+    public void move(int colour, int type, int from, int to)
+    {
+        long b = bit(from) | bit(to);
+        pieces[colour * 6 + type] ^= b;
+        colours[colour] ^= b;
+        occupied ^= b;
+        squares[to] = squares[from];
+        squares[from] = -1;
+        key ^= PIECE_KEYS[colour * 6 + type][from] ^ PIECE_KEYS[colour * 6 + type][to];
+        score += values[colour * 6 + type][to] - values[colour * 6 + type][from];
+        if (type == KING)
+            kings[colour] = to;
+    }
+
+    // Returns the code of the piece on a square, or -1 if it's empty
+    public int pieceAt(int sq)
+    {
+        return squares[sq];
+    }
+
+    // Returns the type of the piece on a square, or EMPTY
+    public int typeAt(int sq)
+    {
+        int code = squares[sq];
+        return (code < 0)? EMPTY : CODE_TYPE[code];
+    }
+
+    // Returns the colour of the piece on an occupied square
+    public int colourAt(int sq)
+    {
+        return CODE_COLOUR[squares[sq]];
+    }
+
+    public boolean isOccupied(int sq)
+    {
+        return (occupied & bit(sq)) != 0;
+    }
+
+    // Returns the square of a colour's king, or -1 if it has none
+    public int kingSquare(int colour)
+    {
+        return kings[colour];
+    }
+
+    public long pieceSet(int colour, int type)
+    {
+        return pieces[colour * 6 + type];
+    }
+
+    // Returns true if a piece of the given colour attacks sq. Works outward
+    // from the square instead of looking at every enemy piece: a piece
+    // attacks sq exactly when the same kind of piece standing on sq would
+    // attack it (for pawns, one of the other colour). The sliders' rays stop
+    // at the first piece of occ in each direction.
+    public boolean isAttacked(int sq, int colour, long occ)
+    {
+        long[] p = pieces;
+        int base = colour * 6;
+        if ((PAWN_ATTACKS[1 - colour][sq] & p[base + PAWN]) != 0)
+            return true;
+        if ((KNIGHT_ATTACKS[sq] & p[base + KNIGHT]) != 0)
+            return true;
+        if ((KING_ATTACKS[sq] & p[base + KING]) != 0)
+            return true;
+        long queens = p[base + QUEEN];
+        long diagonal = p[base + BISHOP] | queens;
+        if (diagonal != 0 && (bishopAttacks(sq, occ) & diagonal) != 0)
+            return true;
+        long straight = p[base + ROOK] | queens;
+        return straight != 0 && (rookAttacks(sq, occ) & straight) != 0;
+    }
+
+    // Returns the set of the given colour's pieces attacking sq, looked up
+    // outward from the square the same way as isAttacked
+    public long attackers(int sq, int colour, long occ)
+    {
+        long[] p = pieces;
+        int base = colour * 6;
+        long queens = p[base + QUEEN];
+        return (PAWN_ATTACKS[1 - colour][sq] & p[base + PAWN]) |
+                (KNIGHT_ATTACKS[sq] & p[base + KNIGHT]) |
+                (KING_ATTACKS[sq] & p[base + KING]) |
+                (bishopAttacks(sq, occ) & (p[base + BISHOP] | queens)) |
+                (rookAttacks(sq, occ) & (p[base + ROOK] | queens));
+    }
+
+    // Squares a rook on sq attacks, stopping at (and including) the first
+    // occupied square in each direction
+    public static long rookAttacks(int sq, long occupied)
+    {
+        return SlidingAttacks.rookAttacks(sq, occupied);
+    }
+
+    // Squares a bishop on sq attacks, same rules as the rook
+    public static long bishopAttacks(int sq, long occupied)
+    {
+        return SlidingAttacks.bishopAttacks(sq, occupied);
+    }
+
+    public static long bit(int sq)
+    {
+        return 1L << sq;
+    }
+
+    public static int square(int r, int c)
+    {
+        return r * 8 + c;
+    }
+
+    // Returns the bit of the given row and column, or 0 if it's off the board
+    private static long bitAt(int r, int c)
+    {
+        if (r < 0 || r > 7 || c < 0 || c > 7)
+            return 0L;
+        return bit(r * 8 + c);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+   Briggs Richardson
+
+   The fork/join task of the young brothers wait search that searches one
+   younger brother of a split point (see SplitPoint).
+*/
+
+import java.util.concurrent.RecursiveAction;
+
+public class BrotherTask extends RecursiveAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private final LogicBoard parent;
+    private final int move; // Packed, see LogicBoard
+    private final int index;
+    private final int depth;
+    private final boolean maximizer;
+    private final SplitPoint split;
+
+    public BrotherTask(LogicBoard parent, int move, int index,
+                       int depth, boolean maximizer, SplitPoint split)
+    {
+        this.parent = parent;
+        this.move = move;
+        this.index = index;
+        this.depth = depth;
+        this.maximizer = maximizer;
+        this.split = split;
+    }
+
+    protected void compute()
+    {
+        parent.searchBrother(move, index, depth, maximizer, split);
+    }
+}
@@ -56,8 +56,9 @@ class PossibleCoordinates
 
 /*
    This class stores the starting square and the ending square of the AI's
-   choice of where it wants to move. The CHESSGUI class uses this class to
-   call the logicBoard / chessGUI methods to make the move happen.
+   choice of where it wants to move, and the piece a promoting pawn becomes.
+   The CHESSGUI class uses this class to call the logicBoard / chessGUI
+   methods to make the move happen.
 */
 final class CompLoc
 {
@@ -65,23 +66,7 @@ final class CompLoc
     public static int c1;
     public static int r2;
     public static int c2;
-}
-
-// Stores all the information necessary to undo a move
-class MoveUndo
-{
-    public int _r1;
-    public int _c1;
-    public int _r2;
-    public int _c2;
-    public boolean _sMoved;
-    public boolean _cMoved;
-    public boolean _sWhite;
-    public boolean _cWhite;
-    public String _cName;
-    public boolean _castle;
-    public boolean _passant;
-    public boolean _promotion;
+    public static int promotion = Bitboard.QUEEN; // Bitboard type
 }
 
 // This record holds the move (start to end) that the computer chooses.
@@ -91,4 +76,5 @@ class BestMove
     public int c1;
     public int r2;
     public int c2;
+    public int move; // The same move, packed (see LogicBoard)
 }
\ No newline at end of file
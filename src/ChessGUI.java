@@ -16,12 +16,17 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import javax.swing.JOptionPane;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 public class ChessGUI
 {
     private static LogicBoard logic; // Logic instance
     private static ButtonTracker bt; // Stores coordinates for moves
 
+    private static final String BOOK_FILE = "../src/book.bin";
+    private static final String TABLEBASE_DIRECTORY = "../src/tablebases";
+
     private JFrame frame;
 
     private JPanel chessBoardPanel;
@@ -56,9 +61,40 @@ public class ChessGUI
     {
         // Initialization of logic instance and sounds
         logic = new LogicBoard();
+        logic.setThreads(Runtime.getRuntime().availableProcessors());
+        openBook();
+        openTablebases();
         createGUI();
     }
 
+    // Lets the computer play its openings from a Polyglot book, if there is
+    // one next to the icons
+    private void openBook()
+    {
+        try
+        {
+            logic.setBook(new OpeningBook(Paths.get(BOOK_FILE)));
+        }
+        catch (IOException e)
+        {
+            // No book: the computer searches every move
+        }
+    }
+
+    // Lets the computer look endings up in the tablebases next to the
+    // icons, if there are any
+    private void openTablebases()
+    {
+        try
+        {
+            logic.setTablebases(new Tablebases(Paths.get(TABLEBASE_DIRECTORY)));
+        }
+        catch (IOException e)
+        {
+            // No tablebases: endings are searched like everything else
+        }
+    }
+
     // Initializes the JFrame, JPanels, and JButtons for the graphics
     private void createGUI()
     {
@@ -193,11 +229,22 @@ public class ChessGUI
     // indicated by "promotionChoice" variable.
     public void promoteIcon(int r1, int c1, int r2, int c2)
     {
+        promoteIcon(r1, c1, r2, c2, Bitboard.QUEEN);
+    }
+
+    // Same as above, with the piece (Bitboard type) the pawn becomes
+    public void promoteIcon(int r1, int c1, int r2, int c2, int promotionType)
+    {
+        boolean white = logic.getIsWhiteTurn();
         squares[r1][c1].setIcon(null);
-        if (logic.getIsWhiteTurn())
-            squares[r2][c2].setIcon(wQueen);
+        if (promotionType == Bitboard.KNIGHT)
+            squares[r2][c2].setIcon((white)? wKnight : bKnight);
+        else if (promotionType == Bitboard.BISHOP)
+            squares[r2][c2].setIcon((white)? wBishop : bBishop);
+        else if (promotionType == Bitboard.ROOK)
+            squares[r2][c2].setIcon((white)? wRook : bRook);
         else
-            squares[r2][c2].setIcon(bQueen);
+            squares[r2][c2].setIcon((white)? wQueen : bQueen);
     }
 
     // The inner class which acts as the middle man between the Logic
@@ -278,13 +325,14 @@ public class ChessGUI
            to the moves throughout the game.
 
            If the computerMode is on and it's the computer's turn, change the
-           coordinates to its choice (stored in CompLoc), and have the default
-           promotion choice be queen.
+           coordinates to its choice (stored in CompLoc), along with the piece
+           it promotes to. The user's promotion choice is always queen.
         */
         public void playTurn()
         {
             // We establish the coordinates of the desired move
             int r2, c2;
+            int promotionType = Bitboard.QUEEN;
             if (computerMode && !logic.getIsWhiteTurn())
             {
                 // Computer's move. Change coordinates to its choice of move
@@ -293,6 +341,7 @@ public class ChessGUI
                 bt.c1 = CompLoc.c1;
                 r2 = CompLoc.r2;
                 c2 = CompLoc.c2;
+                promotionType = CompLoc.promotion;
             }
             else // User's turn. We leave bt as it is, and store r2,c2 as
             {    // the coordinates of the second click
@@ -309,7 +358,7 @@ public class ChessGUI
             // Condition for promotion, if pawn reaches end. Prompt for
             // promotion choice
             if (logic.pawnAtEnd(bt.r1, bt.c1, r2, c2))
-                promoteIcon(bt.r1, bt.c1, r2, c2);
+                promoteIcon(bt.r1, bt.c1, r2, c2, promotionType);
                 // If a pawn captures en Passant, call special method which
                 // handles removing icon for En Passant captures
             else if (logic.pawnEnPassant(bt.r1, bt.c1, r2, c2))
@@ -325,7 +374,7 @@ public class ChessGUI
             //logic.setPassantOpportunity(bt.r1, bt.c1, r2, c2);
             // Update the LogicBoard for all three situations through
             // logic.updateBoard
-            logic.updateBoard(bt.r1, bt.c1, r2, c2);
+            logic.updateBoard(bt.r1, bt.c1, r2, c2, promotionType);
 
             logic.switchTurn();
 
@@ -0,0 +1,269 @@
+/*
+   Briggs Richardson
+
+   EpdRunner runs the computer over a test suite in an EPD file, and counts
+   how many of its positions it solves. Each line of the file is a position
+   (the first four fields of a FEN) followed by operations, of which it
+   reads:
+      bm <moves>;  the best moves, one of which must be played
+      am <moves>;  moves to avoid, none of which may be played
+      id "<name>"; the name of the position
+   Moves are in standard algebraic notation, like Nf3 or exd5.
+
+   Every position is searched for a fixed time or to a fixed depth. The
+   file is read a line at a time while a pool of workers searches, each on
+   a LogicBoard of its own, so the positions are searched in parallel.
+   For each position it prints the move played and the time to solution:
+   the time until the search found a right move, counted from the first
+   iteration after which its best move stayed right. At the end, it prints
+   how many positions were solved, and the nodes per second (per worker,
+   and of all the workers together).
+
+   Usage: java EpdRunner <file> [time <ms> | depth <n>] [threads <n>]
+*/
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class EpdRunner
+{
+    private static final long DEFAULT_TIME = 1000;  // milliseconds
+    private static final long FOREVER = 365L * 24 * 60 * 60 * 1000;
+    private static final String END = "";           // Tells a worker to stop
+
+    private final long timeBudget;
+    private final int maxDepth;
+    private final BlockingQueue<String> lines;
+
+    // Totals over every position, added to by the workers
+    private final AtomicLong positions = new AtomicLong();
+    private final AtomicLong solved = new AtomicLong();
+    private final AtomicLong nodes = new AtomicLong();
+    private final AtomicLong searchNanos = new AtomicLong();
+
+    public EpdRunner(long timeBudget, int maxDepth, int threads)
+    {
+        this.timeBudget = timeBudget;
+        this.maxDepth = maxDepth;
+        this.lines = new ArrayBlockingQueue<String>(threads * 4);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java EpdRunner <file> [time <ms> | depth <n>] [threads <n>]");
+            return;
+        }
+
+        long time = DEFAULT_TIME;
+        int depth = 64;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i + 1 < args.length; i += 2)
+        {
+            if (args[i].equals("time"))
+                time = Long.parseLong(args[i + 1]);
+            else if (args[i].equals("depth"))
+            {
+                depth = Integer.parseInt(args[i + 1]);
+                time = FOREVER;
+            }
+            else if (args[i].equals("threads"))
+                threads = Integer.parseInt(args[i + 1]);
+        }
+
+        new EpdRunner(time, depth, threads).run(args[0], threads);
+    }
+
+    // Searches every position of the file, then prints the totals
+    public void run(String file, int threads) throws IOException, InterruptedException
+    {
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; ++i)
+        {
+            workers[i] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    work();
+                }
+            });
+            workers[i].start();
+        }
+
+        long start = System.nanoTime();
+        try (BufferedReader in = new BufferedReader(new FileReader(file)))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (!line.trim().isEmpty())
+                    lines.put(line);
+            }
+        }
+        finally
+        {
+            for (int i = 0; i < threads; ++i)
+                lines.put(END);
+            for (int i = 0; i < threads; ++i)
+                workers[i].join();
+        }
+        long wall = System.nanoTime() - start;
+
+        long count = positions.get();
+        System.out.printf("Solved %d of %d (%.1f%%)%n", solved.get(), count,
+                (count == 0)? 0.0 : 100.0 * solved.get() / count);
+        System.out.printf("%d nodes, %.0f nps per worker, %.0f nps in total (%d workers)%n",
+                nodes.get(), nodes.get() * 1e9 / Math.max(1, searchNanos.get()),
+                nodes.get() * 1e9 / wall, threads);
+    }
+
+    // Run by each worker: searches positions until it is told to stop
+    private void work()
+    {
+        LogicBoard logic = new LogicBoard();
+        logic.setTimeBudget(timeBudget);
+        logic.setMaxDepth(maxDepth);
+        try
+        {
+            String line;
+            while ((line = lines.take()) != END) // The same String, not just equal
+            {
+                try
+                {
+                    solve(logic, line);
+                }
+                catch (IllegalArgumentException e)
+                {
+                    System.out.println("Skipped: " + e.getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Searches one EPD position, and prints and counts the result
+    private void solve(LogicBoard logic, String line)
+    {
+        // The operations start after the fourth field
+        int fields = 0;
+        int i = 0;
+        while (i < line.length() && fields < 4)
+        {
+            while (i < line.length() && line.charAt(i) == ' ')
+                ++i;
+            while (i < line.length() && line.charAt(i) != ' ')
+                ++i;
+            ++fields;
+        }
+        String operations = line.substring(i);
+        String[] best = operand(operations, "bm");
+        String[] avoid = operand(operations, "am");
+        String[] id = operand(operations, "id");
+        String name = (id.length > 0)? id[0].replace("\"", "") : line.substring(0, line.indexOf(' ') + 1).trim();
+        if (best.length == 0 && avoid.length == 0)
+            throw new IllegalArgumentException(name + " has no bm or am");
+
+        logic.setPosition(line);
+        logic.clearTable();
+
+        // The SAN of every legal move, so the search's moves can be
+        // compared with the ones in the file
+        int[] moves = logic.legalMoves();
+        String[] sans = new String[moves.length];
+        for (int m = 0; m < moves.length; ++m)
+            sans[m] = logic.moveSan(moves[m]);
+
+        logic.computerTurn();
+        SearchStats stats = logic.getSearchStats();
+
+        String played = sanOf(stats.getMove(), moves, sans);
+        boolean right = isRight(played, best, avoid);
+
+        // Time to solution: up to the end of the first iteration of the
+        // final run of iterations whose move was right
+        long solvedNanos = -1;
+        if (right)
+        {
+            int first = stats.getDepth();
+            while (first > 1 && isRight(sanOf(stats.getIterationMove(first - 1), moves, sans),
+                    best, avoid))
+                --first;
+            solvedNanos = 0;
+            for (int d = 1; d <= first; ++d)
+                solvedNanos += stats.getIterationNanos(d);
+        }
+
+        positions.incrementAndGet();
+        if (right)
+            solved.incrementAndGet();
+        nodes.addAndGet(stats.getNodes());
+        searchNanos.addAndGet(stats.getElapsedNanos());
+
+        String expected = (best.length > 0)? "bm " + String.join(" ", best) :
+                "am " + String.join(" ", avoid);
+        System.out.printf("%-20s %-8s %-8s %-16s %8s  depth %d, %d nodes%n", name,
+                (right)? "solved" : "failed", played, "(" + expected + ")",
+                (right)? solvedNanos / 1000000 + " ms" : "-", stats.getDepth(), stats.getNodes());
+    }
+
+    // Returns the operands of an EPD operation, like the moves of "bm"
+    private static String[] operand(String operations, String opcode)
+    {
+        String[] parts = operations.split(";");
+        for (int i = 0; i < parts.length; ++i)
+        {
+            String part = parts[i].trim();
+            if (part.startsWith(opcode + " "))
+                return part.substring(opcode.length()).trim().split("\\s+");
+        }
+        return new String[0];
+    }
+
+    // Returns the SAN of a packed move, found among the legal moves
+    private static String sanOf(int move, int[] moves, String[] sans)
+    {
+        for (int i = 0; i < moves.length; ++i)
+        {
+            if ((moves[i] & LogicBoard.MOVE_ID) == (move & LogicBoard.MOVE_ID))
+                return sans[i];
+        }
+        return "?";
+    }
+
+    // Returns true if a move is one of the best moves (if there are any),
+    // and none of the moves to avoid. Check and annotation marks are
+    // ignored, since not every file writes them.
+    private static boolean isRight(String san, String[] best, String[] avoid)
+    {
+        String move = bare(san);
+        for (int i = 0; i < avoid.length; ++i)
+        {
+            if (bare(avoid[i]).equals(move))
+                return false;
+        }
+        if (best.length == 0)
+            return true;
+        for (int i = 0; i < best.length; ++i)
+        {
+            if (bare(best[i]).equals(move))
+                return true;
+        }
+        return false;
+    }
+
+    private static String bare(String san)
+    {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0)
+            --end;
+        return san.substring(0, end);
+    }
+}
@@ -1,9 +1,11 @@
 /*
    Briggs Richardson
 
-   The LogicBoard is responsible for the LOGIC of the chess game. It contains
-   a 8x8 array of Pieces, and maintains/updates the array of pieces along with
-   the 8x8 array of JButtons w/ Icons in the ChessGUI class. The main function
+   The LogicBoard is responsible for the LOGIC of the chess game. It stores
+   the position in a Bitboard (a 64-bit set per piece type and colour), and
+   maintains/updates it along with the 8x8 array of JButtons w/ Icons in the
+   ChessGUI class. The row / column methods used by the ChessGUI are kept,
+   and translate to the Bitboard's squares internally. The main function
    of the LogicBoard class entails determining if a move from 1 location on
    the array to another is a VALID move. There are several other methods that
    the ActionListner ChessPieceListener uses to keep the game updated. This
@@ -14,15 +16,139 @@
    to determine the best move, and stores it in the CompLoc record
 */
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
 public class LogicBoard
 {
-    private Piece[][] pieces;
-    private static boolean _isWhiteTurn;
+    private Bitboard board;
+    private boolean _isWhiteTurn;
+
+    // Castling rights, one bit per side a colour may still castle to. A
+    // move from or onto a king's or rook's starting square clears the
+    // rights that piece was part of: castling &= CASTLE_MASK[square].
+    private int castling;
+    static final int WHITE_SHORT = 1;
+    static final int WHITE_LONG = 2;
+    static final int BLACK_SHORT = 4;
+    static final int BLACK_LONG = 8;
+    static final int ALL_CASTLING = 15;
+    private static final int[] CASTLE_MASK = new int[64];
+    private static final long LAST_RANKS = 0xFF000000000000FFL; // Rows 0 and 7
+
+    // Moves since the last capture or pawn move (for the 50 move rule), and
+    // the number of the move being played, which goes up after black moves
+    private int halfmoveClock;
+    private int fullmoveNumber = 1;
+
+    // Reused to read a FEN out of a byte buffer
+    private AsciiChars fenBytes = new AsciiChars();
 
     public Move lastMove;
     private BestMove bestMove = new BestMove();
     private Stack restore = new Stack();
-    private static int DEPTH_MAX = 4;
+
+    /*
+       Checks and pins of the side whose moves are being generated, found
+       once per position instead of making every move and testing the king:
+       - checkMask: the squares a piece other than the king may move to.
+         Every square when not in check, the checker and the squares between
+         it and the king in check, and none in double check.
+       - pinned: pieces standing alone between their king and an enemy
+         slider. A pinned piece may only move along pinRays[square], the
+         line from the king up to and including the pinning piece.
+    */
+    private long checkMask;
+    private long pinned;
+    private long[] pinRays = new long[64];
+
+    /*
+       Search limits of computerTurn. The search deepens one move at a time
+       and stops starting new iterations once the soft deadline (half of the
+       time budget) has passed, since the next one would likely not finish.
+       An iteration still running at the hard deadline (the whole budget),
+       or when the node limit is reached, is abandoned, and the move of the
+       last completed iteration is played.
+    */
+    private static final long DEFAULT_TIME_BUDGET = 2000; // milliseconds
+    private static final int MAX_DEPTH = 64;
+    private long timeBudget = DEFAULT_TIME_BUDGET;
+    private long nodeLimit = Long.MAX_VALUE;
+    private int maxDepth = MAX_DEPTH;
+
+    private int rootDepth;      // Depth of the current iteration
+    private long nodes;         // Positions visited by the current search
+    private long hardDeadline;  // System.nanoTime() the search must stop by
+    private volatile boolean stopSearch; // Set once a limit is hit
+
+    // Statistics of the current search on this board, and of the last
+    // whole search (every thread's counts added together)
+    private SearchStats stats = new SearchStats();
+    private SearchStats lastSearch = new SearchStats();
+
+    // Calls counted to pick which ones the sampled SearchEvents time
+    private int generateCalls;
+    private int leafCalls;
+
+    // The move of the deepest iteration that finished, and its depth
+    private BestMove completed = new BestMove();
+    private int completedDepth;
+
+    /*
+       Lazy SMP: with more than one thread, computerTurn starts helper
+       threads that search the same position as the main search, each on its
+       own copy of the board (with its own killers and history), at depths
+       staggered by one. They share the transposition table, so the positions
+       one thread finishes don't need to be searched again by the others.
+       When the main search ends, the helpers are stopped, and the move of
+       whichever thread finished the deepest iteration is played.
+    */
+    private int threads = 1;
+    private LogicBoard[] helpers = new LogicBoard[0];
+
+    /*
+       Young brothers wait: the other way of searching with more than one
+       thread. At a node with at least SPLIT_DEPTH moves left to search, the
+       first move (eldest brother) is searched on its own, and once it has
+       set the window, the rest (younger brothers) are searched in parallel
+       by fork/join tasks, each on a board of its own. A brother that causes
+       a cutoff cancels the ones still running (see SplitPoint).
+    */
+    public static final int LAZY_SMP = 0;
+    public static final int YOUNG_BROTHERS = 1;
+    private static final int SPLIT_DEPTH = 3;
+    private int parallelMode = LAZY_SMP;
+    private ForkJoinPool pool;
+    private SplitPoint split; // The split point this board searches under
+
+    // Remembers positions already searched (shared by every search, and
+    // by the helper boards)
+    private TranspositionTable table;
+
+    // Opening book consulted before searching, or null
+    private OpeningBook book;
+
+    // Endgame tablebases the search looks endings up in, or null, and the
+    // pieces of the position being looked up
+    private Tablebases tablebases;
+    private int[] tablebaseTypes = new int[Tablebases.MAX_PIECES];
+    private int[] tablebaseColours = new int[Tablebases.MAX_PIECES];
+    private int[] tablebaseSquares = new int[Tablebases.MAX_PIECES];
+
+    // Killer moves and history scores used to order the moves
+    private MoveOrdering ordering = new MoveOrdering();
+
+    // Score of checkmating (less the number of moves it takes), anything
+    // above MATE_BOUND is a forced mate
+    static final double MATE = 10000000;
+    static final double MATE_BOUND = MATE - 1000;
+
+    // Delta pruning margin of the quiescence search: a capture that can't
+    // bring the score within this much of alpha / beta isn't searched
+    private static final double DELTA_MARGIN = 20.0;
 
     // Points for piece placement (positional rankings for AI board evaluation)
     private double[][] pawn_table =
@@ -96,26 +222,108 @@ public class LogicBoard
                     {2.0, 2.0, 0.0, 0.0, 0.0, 0.0, 0.0, 2.0},
                     {2.0, 3.0, 1.0, 0.0, 0.0, 1.0, 3.0, 2.0},
             };
+    /*
+       Moves are packed into an int, so generating them allocates nothing:
+          bits 0-5    starting square
+          bits 6-11   ending square
+          bits 12-14  type of the piece promoted to (0 if not a promotion)
+          bit 15      the move captures (En Passant included)
+          bit 16      En Passant
+          bit 17      castling
+       The low 15 bits tell the moves of a position apart, and are what the
+       transposition table stores. Each ply of the search generates its
+       moves into its own buffer.
+    */
+    static final int MOVE_ID = 0x7FFF;
+    static final int PROMOTION_MASK = 0x7000;
+    static final int CAPTURE_FLAG = 1 << 15;
+    static final int PASSANT_FLAG = 1 << 16;
+    static final int CASTLE_FLAG = 1 << 17;
+    static final int MAX_MOVES = 256; // More than any position has
+    private int[][] moveBuffers = new int[MoveOrdering.MAX_PLY][MAX_MOVES];
+
     // Array of all the possible moves (used for checking for
-    // checkmate, stalemate, and generating a computer move)
-    private PossibleCoordinates availableMoves[];
+    // checkmate and stalemate)
+    private int[] availableMoves = new int[MAX_MOVES];
+    private int[] sanMoves = new int[MAX_MOVES]; // Moves parseSan looks through
+
+    static
+    {
+        for (int sq = 0; sq < 64; ++sq)
+            CASTLE_MASK[sq] = ALL_CASTLING;
+        CASTLE_MASK[60] &= ~(WHITE_SHORT | WHITE_LONG);
+        CASTLE_MASK[63] &= ~WHITE_SHORT;
+        CASTLE_MASK[56] &= ~WHITE_LONG;
+        CASTLE_MASK[4] &= ~(BLACK_SHORT | BLACK_LONG);
+        CASTLE_MASK[7] &= ~BLACK_SHORT;
+        CASTLE_MASK[0] &= ~BLACK_LONG;
+    }
+
+    // Letters of the piece codes, as written in FEN
+    private static final String PIECE_CHARS = "PNBRQKpnbrqk";
+
+    // Material value of each piece type, indexed by Bitboard type
+    static final double[] PIECE_VALUES =
+            {10.0, 30.0, 30.0, 50.0, 90.0, 900.0};
+
+    // Material plus placement points of every piece on every square, from
+    // white's point of view, indexed [colour * 6 + type][square]. The
+    // Bitboard adds these up as pieces move, so its score is always the
+    // evaluation of the position.
+    private double[][] squareValues;
 
     public LogicBoard()
     {
         // Initialization of data member instances.
-        pieces = new Piece[8][8];
+        squareValues = buildSquareValues();
+        board = new Bitboard(squareValues);
         lastMove = new Move();
-        availableMoves = new PossibleCoordinates[500];
+        table = new TranspositionTable(TranspositionTable.DEFAULT_ENTRIES);
 
         initializeGame();
     }
 
+    // Creates a helper board for the Lazy SMP search: a copy of the given
+    // board's position, sharing its transposition table
+    private LogicBoard(LogicBoard other)
+    {
+        squareValues = other.squareValues;
+        board = new Bitboard(squareValues);
+        lastMove = new Move();
+        table = other.table;
+        tablebases = other.tablebases;
+
+        copyPosition(other);
+    }
+
+    // Returns a new board with the same position, sharing this board's
+    // transposition table
+    LogicBoard copy()
+    {
+        return new LogicBoard(this);
+    }
+
+    // Sets this board to the same position as another board
+    private void copyPosition(LogicBoard other)
+    {
+        board.copyFrom(other.board);
+        castling = other.castling;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        _isWhiteTurn = other._isWhiteTurn;
+        lastMove.r1 = other.lastMove.r1;
+        lastMove.c1 = other.lastMove.c1;
+        lastMove.r2 = other.lastMove.r2;
+        lastMove.c2 = other.lastMove.c2;
+        lastMove.name = other.lastMove.name;
+    }
+
     /*
        initializeGame creates all the pieces and puts them in the starting
        position. It sets the first move to white, and initializes the data
        members of lastMove.
        - This is used when the game starts.
-       - Also used when the user wants to RESET the game (thus the nulls)
+       - Also used when the user wants to RESET the game (thus the clear)
     */
     public void initializeGame()
     {
@@ -126,35 +334,204 @@ public class LogicBoard
         lastMove.c2 = 0;
         lastMove.name = null;
 
-        // TRUE = White piece. FALSE = Black piece.
+        board.clear();
+        castling = ALL_CASTLING;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+
+        int[] backRank = {Bitboard.ROOK, Bitboard.KNIGHT, Bitboard.BISHOP,
+                Bitboard.QUEEN, Bitboard.KING, Bitboard.BISHOP,
+                Bitboard.KNIGHT, Bitboard.ROOK};
+
         for (int c = 0; c < 8; ++c)
         {
-            pieces[1][c] = new Pawn (false);
-            pieces[6][c] = new Pawn (true);
+            board.put(Bitboard.BLACK, backRank[c], Bitboard.square(0, c));
+            board.put(Bitboard.BLACK, Bitboard.PAWN, Bitboard.square(1, c));
+            board.put(Bitboard.WHITE, Bitboard.PAWN, Bitboard.square(6, c));
+            board.put(Bitboard.WHITE, backRank[c], Bitboard.square(7, c));
         }
-        for (int c = 0; c < 8; ++c)
+        board.key ^= stateKey();
+    }
+
+    /*
+       Sets up the position of a FEN string: the pieces, the side to move,
+       castling rights, the En Passant square and the two move counters.
+       Fields after the side to move may be left out (EPD records end after
+       the En Passant square). The string is read a character at a time,
+       without splitting it or copying it, so loading a position makes no
+       garbage. Throws IllegalArgumentException if it isn't a FEN.
+    */
+    public void setPosition(CharSequence fen)
+    {
+        board.clear();
+        restore.clearStack();
+        castling = 0;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+        lastMove.r1 = 0;
+        lastMove.r2 = 0;
+        lastMove.c1 = 0;
+        lastMove.c2 = 0;
+        lastMove.name = null;
+
+        // The pieces, row 0 (black's back rank) first
+        int length = fen.length();
+        int i = skipSpaces(fen, 0);
+        int r = 0;
+        int c = 0;
+        for (; i < length && fen.charAt(i) != ' '; ++i)
+        {
+            char ch = fen.charAt(i);
+            int code = PIECE_CHARS.indexOf(ch);
+            if (ch == '/' && c == 8 && r < 7)
+            {
+                ++r;
+                c = 0;
+            }
+            else if (ch >= '1' && ch <= '8' && c + ch - '0' <= 8)
+                c += ch - '0';
+            else if (code >= 0 && c < 8)
+            {
+                board.put(Bitboard.CODE_COLOUR[code], Bitboard.CODE_TYPE[code],
+                        Bitboard.square(r, c));
+                ++c;
+            }
+            else
+                throw new IllegalArgumentException("Not a FEN: " + fen);
+        }
+        i = skipSpaces(fen, i);
+        if (r != 7 || c != 8 || i >= length ||
+                (fen.charAt(i) != 'w' && fen.charAt(i) != 'b'))
+            throw new IllegalArgumentException("Not a FEN: " + fen);
+
+        _isWhiteTurn = fen.charAt(i) == 'w';
+
+        i = skipSpaces(fen, i + 1);
+        for (; i < length && fen.charAt(i) != ' '; ++i)
+        {
+            char ch = fen.charAt(i);
+            if (ch == 'K')
+                castling |= WHITE_SHORT;
+            else if (ch == 'Q')
+                castling |= WHITE_LONG;
+            else if (ch == 'k')
+                castling |= BLACK_SHORT;
+            else if (ch == 'q')
+                castling |= BLACK_LONG;
+        }
+
+        // The En Passant square is the one the pawn skipped over. The pawn
+        // is one row further on.
+        i = skipSpaces(fen, i);
+        if (i + 1 < length && fen.charAt(i) >= 'a' && fen.charAt(i) <= 'h' &&
+                (fen.charAt(i + 1) == '3' || fen.charAt(i + 1) == '6'))
+        {
+            int passedRow = '8' - fen.charAt(i + 1);
+            lastMove.c1 = fen.charAt(i) - 'a';
+            lastMove.c2 = lastMove.c1;
+            lastMove.r1 = (passedRow == 2)? 1 : 6;
+            lastMove.r2 = (passedRow == 2)? 3 : 4;
+            lastMove.name = "Pawn";
+        }
+        for (; i < length && fen.charAt(i) != ' '; ++i)
+        {
+        }
+
+        // The move counters, if they are there
+        i = skipSpaces(fen, i);
+        if (i < length && fen.charAt(i) >= '0' && fen.charAt(i) <= '9')
+        {
+            halfmoveClock = 0;
+            for (; i < length && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; ++i)
+                halfmoveClock = halfmoveClock * 10 + fen.charAt(i) - '0';
+
+            i = skipSpaces(fen, i);
+            if (i < length && fen.charAt(i) >= '1' && fen.charAt(i) <= '9')
+            {
+                fullmoveNumber = 0;
+                for (; i < length && fen.charAt(i) >= '0' && fen.charAt(i) <= '9'; ++i)
+                    fullmoveNumber = fullmoveNumber * 10 + fen.charAt(i) - '0';
+            }
+        }
+        board.key ^= stateKey();
+    }
+
+    // Same as above, reading the FEN from bytes start to end (exclusive)
+    // of a buffer, such as a file mapped into memory. The buffer's
+    // position isn't changed.
+    public void setPosition(ByteBuffer buffer, int start, int end)
+    {
+        fenBytes.set(buffer, start, end);
+        setPosition(fenBytes);
+    }
+
+    // Returns the index of the first character at or after i that isn't a
+    // space
+    private static int skipSpaces(CharSequence text, int i)
+    {
+        while (i < text.length() && text.charAt(i) == ' ')
+            ++i;
+        return i;
+    }
+
+    // Returns the FEN of the position
+    public String toFen()
+    {
+        StringBuilder fen = new StringBuilder(90);
+        appendFen(fen);
+        return fen.toString();
+    }
+
+    // Writes the FEN of the position onto the end of a StringBuilder. A
+    // builder that is reused (setLength(0)) makes no garbage.
+    public void appendFen(StringBuilder fen)
+    {
+        for (int r = 0; r < 8; ++r)
+        {
+            int empty = 0;
+            for (int c = 0; c < 8; ++c)
+            {
+                int code = board.pieceAt(Bitboard.square(r, c));
+                if (code < 0)
+                    ++empty;
+                else
+                {
+                    if (empty > 0)
+                        fen.append((char) ('0' + empty));
+                    empty = 0;
+                    fen.append(PIECE_CHARS.charAt(code));
+                }
+            }
+            if (empty > 0)
+                fen.append((char) ('0' + empty));
+            if (r < 7)
+                fen.append('/');
+        }
+
+        fen.append((_isWhiteTurn)? " w " : " b ");
+
+        if (castling == 0)
+            fen.append('-');
+        if ((castling & WHITE_SHORT) != 0)
+            fen.append('K');
+        if ((castling & WHITE_LONG) != 0)
+            fen.append('Q');
+        if ((castling & BLACK_SHORT) != 0)
+            fen.append('k');
+        if ((castling & BLACK_LONG) != 0)
+            fen.append('q');
+
+        // The square the pawn that just advanced two rows skipped over
+        fen.append(' ');
+        if (lastMove.name == null)
+            fen.append('-');
+        else
         {
-            pieces[2][c] = null;
-            pieces[3][c] = null;
-            pieces[4][c] = null;
-            pieces[5][c] = null;
-        }
-        pieces[7][2] = new Bishop (true);
-        pieces[7][5] = new Bishop (true);
-        pieces[0][2] = new Bishop (false);
-        pieces[0][5] = new Bishop (false);
-        pieces[0][0] = new Rook (false);
-        pieces[0][7] = new Rook (false);
-        pieces[7][0] = new Rook (true);
-        pieces[7][7] = new Rook (true);
-        pieces[0][1] = new Knight (false);
-        pieces[0][6] = new Knight (false);
-        pieces[7][1] = new Knight (true);
-        pieces[7][6] = new Knight (true);
-        pieces[0][3] = new Queen (false);
-        pieces[7][3] = new Queen (true);
-        pieces[0][4] = new King (false);
-        pieces[7][4] = new King (true);
+            fen.append((char) ('a' + lastMove.c2));
+            fen.append((char) ('8' - (lastMove.r1 + lastMove.r2) / 2));
+        }
+
+        fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber);
     }
 
     // Returns a boolean for whose turn it is (TRUE = WHITE) (FALSE = BLACK)
@@ -171,6 +548,12 @@ public class LogicBoard
             _isWhiteTurn = true;
     }
 
+    // Bitboard colour of the side whose turn it is
+    private int sideToMove()
+    {
+        return (_isWhiteTurn)? Bitboard.WHITE : Bitboard.BLACK;
+    }
+
     /*
        The method first checks if any basic rules are broken. Rules including:
        1) Can't move something that's not there
@@ -184,114 +567,122 @@ public class LogicBoard
     */
     public boolean isValid(int r1, int c1, int r2, int c2)
     {
-        if (pieces[r1][c1] == null)
-            return false;
-        else if (pieces[r1][c1].get_isWhite() != _isWhiteTurn)
-            return false;
-        else if (pieces[r2][c2] != null &&
-                pieces[r2][c2].get_isWhite() == _isWhiteTurn)
+        int from = Bitboard.square(r1, c1);
+        int to = Bitboard.square(r2, c2);
+        int side = sideToMove();
+
+        if (!board.isOccupied(from))
             return false;
-        else if (!pieces[r1][c1].canMove(r1, c1, r2, c2))
+        else if (board.colourAt(from) != side)
             return false;
-        else if (moveEndangers(r1,c1,r2,c2))
+        else if ((board.colours[side] & Bitboard.bit(to)) != 0)
             return false;
 
         boolean isValidMove = false;
+        int type = board.typeAt(from);
 
-        if (pieces[r1][c1] instanceof Pawn)
+        if (type == Bitboard.PAWN)
             isValidMove = validPawnMove(r1, c1, r2, c2);
-        else if (pieces[r1][c1] instanceof King)
+        else if (type == Bitboard.KING)
             isValidMove = validKingMove(r1, c1, r2, c2);
-        else if (pieces[r1][c1] instanceof Knight)
-            isValidMove = true;
+        else if (type == Bitboard.KNIGHT)
+            isValidMove = (Bitboard.KNIGHT_ATTACKS[from] & Bitboard.bit(to)) != 0;
         else
-            isValidMove = isPathClear(r1, c1, r2, c2);
+            isValidMove = (sliderAttacks(type, from) & Bitboard.bit(to)) != 0;
+
+        return isValidMove && isLegal(from, to, type, side);
+    }
+
+    // Returns true if moving the piece from one square to the other doesn't
+    // leave its own king in check
+    private boolean isLegal(int from, int to, int type, int colour)
+    {
+        if (type == Bitboard.KING)
+            return !board.isAttacked(to, 1 - colour, board.occupied ^ Bitboard.bit(from));
+        if (type == Bitboard.PAWN &&
+                (passantTarget(colour == Bitboard.WHITE) & Bitboard.bit(to)) != 0)
+            return !moveEndangers(from / 8, from % 8, to / 8, to % 8);
+
+        findChecksAndPins(colour);
+        long target = Bitboard.bit(to);
+        return (checkMask & target) != 0 &&
+                ((pinned & Bitboard.bit(from)) == 0 || (pinRays[from] & target) != 0);
+    }
+
+    // Sets checkMask, pinned and pinRays for the given colour's king
+    private void findChecksAndPins(int colour)
+    {
+        int enemy = 1 - colour;
+        int kingSq = board.kingSquare(colour);
+        checkMask = -1L;
+        pinned = 0L;
+        if (kingSq < 0)
+            return;
+
+        long checkers = board.attackers(kingSq, enemy, board.occupied);
+        if (checkers != 0)
+        {
+            if ((checkers & (checkers - 1)) != 0)
+                checkMask = 0L;
+            else
+                checkMask = checkers | SlidingAttacks.between(kingSq,
+                        Long.numberOfTrailingZeros(checkers));
+        }
 
-        return isValidMove;
+        // Enemy sliders lined up with the king, if nothing were in the way.
+        // Any with exactly one piece in between, one of ours, pin it.
+        long queens = board.pieceSet(enemy, Bitboard.QUEEN);
+        long snipers = (Bitboard.rookAttacks(kingSq, 0L) &
+                (board.pieceSet(enemy, Bitboard.ROOK) | queens)) |
+                (Bitboard.bishopAttacks(kingSq, 0L) &
+                (board.pieceSet(enemy, Bitboard.BISHOP) | queens));
+        while (snipers != 0)
+        {
+            int sniper = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long line = SlidingAttacks.between(kingSq, sniper);
+            long blockers = line & board.occupied;
+            if (blockers != 0 && (blockers & (blockers - 1)) == 0 &&
+                    (blockers & board.colours[colour]) != 0)
+            {
+                pinned |= blockers;
+                pinRays[Long.numberOfTrailingZeros(blockers)] = line | Bitboard.bit(sniper);
+            }
+        }
+    }
+
+    // Returns the squares a bishop, rook or queen on sq attacks, looked up
+    // in the precomputed sliding attack tables
+    private long sliderAttacks(int type, int sq)
+    {
+        if (type == Bitboard.ROOK)
+            return Bitboard.rookAttacks(sq, board.occupied);
+        else if (type == Bitboard.BISHOP)
+            return Bitboard.bishopAttacks(sq, board.occupied);
+        else
+            return Bitboard.rookAttacks(sq, board.occupied) |
+                    Bitboard.bishopAttacks(sq, board.occupied);
     }
 
     // Returns true is the specified spot has a piece that is
     // the opposite color as the color whose turn it is
     private boolean isEnemyThere(int r, int c)
     {
-        return (pieces[r][c] != null &&
-                pieces[r][c].get_isWhite() != _isWhiteTurn);
+        int sq = Bitboard.square(r, c);
+        return (board.isOccupied(sq) && board.colourAt(sq) != sideToMove());
     }
 
     /*
        Method that returns true if the squares inbetween the
        starting square and the target square are empty.
-       Assumes the path is clear, if one of the squares is not
-       null, then the path is proven to be not clear
+       The squares inbetween come from a precomputed table, so
+       this is a single lookup instead of a walk along the path.
     */
     private boolean isPathClear(int r1, int c1, int r2, int c2)
     {
-        boolean pathClear = true;
-
-        // Check horizontal paths, going from left to right
-        if (r1 == r2)
-        {
-            if (c1 > c2)
-            {
-                int temp = c1;
-                c1 = c2;
-                c2 = temp;
-            }
-            for (int i = c1 + 1; i < c2; ++i)
-            {
-                if (pieces[r1][i] != null)
-                    pathClear = false;
-            }
-        }
-        // Check vertical paths, going top to bottom
-        else if (c1 == c2)
-        {
-            if (r1 > r2)
-            {
-                int temp = r1;
-                r1 = r2;
-                r2 = temp;
-            }
-            for (int i = r1 + 1; i < r2; ++i)
-            {
-                if (pieces[i][c1] != null)
-                    pathClear = false;
-            }
-        }
-        // Check diagonal paths, from origin point to destination point
-        else
-        {
-            int difference = r2 - r1;
-            if (difference < 0)
-                difference *= -1;
-            for (int i = 0; i < difference - 1; ++i)
-            {
-                // Incrementing the squares depending on direction of diagonal line
-                if (r1 > r2 && c1 < c2) // NORTH EAST
-                {
-                    --r1;
-                    ++c1;
-                }
-                else if (r1 > r2 && c1 > c2) // NORTH WEST
-                {
-                    --r1;
-                    --c1;
-                }
-                else if (r1 < r2 && c1 > c2) // SOUTH WEST
-                {
-                    ++r1;
-                    --c1;
-                }
-                else // SOUTH EAST
-                {
-                    ++r1;
-                    ++c1;
-                }
-                if (pieces[r1][c1] != null)
-                    pathClear = false;
-            }
-        }
-        return pathClear;
+        long path = SlidingAttacks.between(Bitboard.square(r1, c1),
+                Bitboard.square(r2, c2));
+        return (path & board.occupied) == 0;
     }
 
     // Determines if a pawn can legally move on the board.
@@ -299,45 +690,50 @@ public class LogicBoard
     private boolean validPawnMove(int r1, int c1, int r2, int c2)
     {
         boolean isValid = false;
-        int diffR;
-        int diffC;
+        boolean isWhite = board.colourAt(Bitboard.square(r1, c1)) == Bitboard.WHITE;
+        int forward = (isWhite)? -1 : 1;
+        int startRow = (isWhite)? 6 : 1;
 
         // Straight move - path must be clear, and pawn can't capture
         if (c1 == c2)
-            isValid = (isPathClear(r1,c1,r2,c2) &&
-                    !isEnemyThere(r2,c2));
-        else // Pawn wants to move diagonally (wants to capture)
         {
-            isValid = isEnemyThere(r2, c2); // Only rule, there has to be an enemy
-            if (!isValid )
-            {
-                // Only case the rule of having an enemy there is not applied is
-                // En Passant. Then, the method checks lastMove to see if it can
-                // move diagonally to capture En Passant.
-                if (lastMove.name != null &&
-                        (lastMove.name).equals("Pawn"))
-                {
-                    diffR = lastMove.r2 - lastMove.r1;
-                    diffC = lastMove.c2 - c1;
-                    diffR = (diffR < 0)? -1*diffR : diffR;
-                    diffC = (diffC < 0)? -1*diffC : diffC;
-                    if (diffR == 2 && diffC == 1)
-                    {
-                        // Now we check if the pawn is in the right spot to capture
-                        // we already proved right column difference, now we need
-                        // the right row placement (same row!)
-                        if (lastMove.r2 == r1 && (c2 == lastMove.c2))
-                        {
-                            if (!isEnemyThere(r2, c2))
-                                isValid = true;
-                        }
-                    }
-                }
-            }
+            if (r2 - r1 == forward)
+                isValid = !board.isOccupied(Bitboard.square(r2, c2));
+            else if (r2 - r1 == 2 * forward && r1 == startRow)
+                isValid = (!board.isOccupied(Bitboard.square(r1 + forward, c1)) &&
+                        !board.isOccupied(Bitboard.square(r2, c2)));
+        }
+        else if (r2 - r1 == forward && (c2 - c1 == 1 || c2 - c1 == -1))
+        {
+            // Pawn wants to move diagonally (wants to capture). There has to
+            // be an enemy there, or it has to be capturing En Passant.
+            int to = Bitboard.square(r2, c2);
+            isValid = isEnemyThere(r2, c2) ||
+                    (passantTarget(isWhite) & Bitboard.bit(to)) != 0;
         }
         return isValid;
     }
 
+    /*
+       Returns the square (as a set) a pawn of the given colour may move to
+       when capturing En Passant, or an empty set if the last move was not an
+       enemy pawn advancing two squares.
+    */
+    private long passantTarget(boolean isWhite)
+    {
+        if (lastMove.name == null || !(lastMove.name).equals("Pawn"))
+            return 0L;
+
+        int pawnSq = Bitboard.square(lastMove.r2, lastMove.c2);
+        int pawnColour = (isWhite)? Bitboard.BLACK : Bitboard.WHITE;
+        if ((board.pieceSet(pawnColour, Bitboard.PAWN) & Bitboard.bit(pawnSq)) == 0)
+            return 0L;
+
+        // The square the pawn skipped over
+        int passedRow = (lastMove.r1 + lastMove.r2) / 2;
+        return Bitboard.bit(Bitboard.square(passedRow, lastMove.c2));
+    }
+
     // Determines if a king can move legally on the board
     // Assumes it can't, unless proven otherwise.
     private boolean validKingMove(int r1, int c1, int r2, int c2)
@@ -345,59 +741,78 @@ public class LogicBoard
         boolean isValid = false;
 
         int colDiff = c2 - c1;
+        int rowDiff = r2 - r1;
         colDiff = (colDiff < 0)? (-1*colDiff):colDiff;
+        rowDiff = (rowDiff < 0)? (-1*rowDiff):rowDiff;
 
-        if (colDiff != 2) // colDiff being 2 means the king wants to cancel
-        {                 // Other than that, all the rules say is needs a
-            isValid = isPathClear(r1, c1, r2, c2);            // clear path
+        if (colDiff <= 1 && rowDiff <= 1) // One square in any direction
+        {
+            isValid = true;
         }
-        else // Rules for castling
+        else if (colDiff == 2 && rowDiff == 0) // Rules for castling
         {
          /*
             Checks both sides of the board (castle Long, castle Short)
-            Rules: Needs a clear path between king and rook
-            and both rook and king can not have moved already
+            Rules: Needs a clear path between king and rook, both rook
+            and king can not have moved already, and the king can not
+            castle out of, or through, check.
          */
-            if (c2 == 2 && isPathClear(r1, c1, r1, 0))
-            {
-                if (pieces[r1][c1] != null && pieces[r1][0] != null)
-                {
-                    isValid = (!pieces[r1][c1].get_hasMoved() &&
-                            !pieces[r1][0].get_hasMoved());
-                }
-            }
-            else if (c2 == 6 && isPathClear(r1, c1, r1, 7))
+            int kingSq = Bitboard.square(r1, c1);
+            boolean isWhite = board.colourAt(kingSq) == Bitboard.WHITE;
+            int colour = (isWhite)? Bitboard.WHITE : Bitboard.BLACK;
+            int rookCol = (c2 == 2)? 0 : 7;
+            int rookSq = Bitboard.square(r1, rookCol);
+            int right = (isWhite)? ((c2 == 2)? WHITE_LONG : WHITE_SHORT) :
+                    ((c2 == 2)? BLACK_LONG : BLACK_SHORT);
+
+            if ((castling & right) != 0 &&
+                    (board.pieceSet(colour, Bitboard.ROOK) & Bitboard.bit(rookSq)) != 0 &&
+                    isPathClear(r1, c1, r1, rookCol))
             {
-                if (pieces[r1][c1] != null && pieces[r1][7] != null)
-                {
-                    isValid = (!pieces[r1][c1].get_hasMoved() &&
-                            !pieces[r1][7].get_hasMoved());
-                }
+                int passCol = (c2 == 2)? c1 - 1 : c1 + 1;
+                isValid = (!isThreatened(r1, c1, isWhite) &&
+                        !isThreatened(r1, passCol, isWhite));
             }
         }
         return isValid;
     }
 
-    // If a the chosen piece is a pawn, rook, or king, then it will
-    // let it know it has been moved if it has never been moved.
+    // Clears the castling rights of the piece on the square, so a king or
+    // rook that has moved can no longer castle.
     public void setFirstMove(int r, int c)
     {
-        if (pieces[r][c] != null)
-        {
-            if (pieces[r][c] instanceof Pawn ||
-                    pieces[r][c] instanceof Rook ||
-                    pieces[r][c] instanceof King)
-            {
-                if (!pieces[r][c].get_hasMoved())
-                    pieces[r][c].moved();
-            }
-        }
+        board.key ^= stateKey();
+        castling &= CASTLE_MASK[Bitboard.square(r, c)];
+        board.key ^= stateKey();
+    }
+
+    // Returns the castling rights as 4 bits: white short, white long,
+    // black short, black long
+    public int castleRights()
+    {
+        return castling;
+    }
+
+    // The part of the Zobrist key that isn't the pieces: castling rights,
+    // and the column of a pawn that can be captured En Passant
+    private long stateKey()
+    {
+        long key = Bitboard.CASTLE_KEYS[castleRights()];
+        if (lastMove.name != null)
+            key ^= Bitboard.PASSANT_KEYS[lastMove.c2];
+        return key;
+    }
+
+    // The Zobrist key of the position with the given side to move
+    public long positionKey(boolean whiteToMove)
+    {
+        return (whiteToMove)? board.key : board.key ^ Bitboard.SIDE_KEY;
     }
 
     // Returns true if the king was castled, false otherwise
     public boolean kingCastled(int r1, int c1, int c2)
     {
-        return (pieces[r1][c1] instanceof King &&
+        return (board.typeAt(Bitboard.square(r1, c1)) == Bitboard.KING &&
                 (c2-c1 == 2 || c2-c1 == -2));
     }
 
@@ -406,31 +821,14 @@ public class LogicBoard
     // in the special case
     public boolean pawnEnPassant(int r1, int c1, int r2, int c2)
     {
-        boolean pawnEnPassant = false;
-        // Capturing piece must be a pawn
-        if (pieces[r1][c1] != null && pieces[r1][c1] instanceof Pawn)
-        {
-            // Captured piece must be a pawn OF OPPOSITE COLOR
-            if (pieces[r1][c2] != null && pieces[r1][c2] instanceof Pawn
-                    && pieces[r1][c1].get_isWhite() != pieces[r1][c2].get_isWhite())
-            {
-                // lastMove must be equal to pawn
-                if (lastMove.name != null && (lastMove.name).equals("Pawn"))
-                {
-                    // Must be a capture move
-                    if (c1 != c2)
-                    {
-                        // Must be at a proper location
-                        if ((r2 == 2 || r2 == 5) && (r1 == 3 || r1 == 4))
-                        {
-                            if (pieces[r2][c2] == null)
-                                pawnEnPassant = true;
-                        }
-                    }
-                }
-            }
-        }
-        return pawnEnPassant;
+        int from = Bitboard.square(r1, c1);
+        // Capturing piece must be a pawn, and it must be a capture move
+        if (board.typeAt(from) != Bitboard.PAWN || c1 == c2)
+            return false;
+
+        // The target square must be the one the enemy pawn skipped over
+        boolean isWhite = board.colourAt(from) == Bitboard.WHITE;
+        return (passantTarget(isWhite) & Bitboard.bit(Bitboard.square(r2, c2))) != 0;
     }
 
     /*
@@ -443,7 +841,7 @@ public class LogicBoard
         int diffR;
         diffR = r2 - r1;
         diffR = (diffR < 0)? -1 * diffR : diffR;
-        if (pieces[r1][c1] instanceof Pawn && diffR == 2)
+        if (board.typeAt(Bitboard.square(r1, c1)) == Bitboard.PAWN && diffR == 2)
         {
             lastMove.r1 = r1;
             lastMove.c1 = c1;
@@ -461,63 +859,74 @@ public class LogicBoard
         }
     }
 
-    // Moves the locations of Piece's in the [8][8] Piece array
+    // Moves the pieces on the Bitboard
     // If the board is updating, a valid move was played.
-    // NOTE: If it's a castle, it let's the rook know it has been moved.
+    // NOTE: If it's a castle, the rook is moved as well.
     public void updateBoard(int r1, int c1, int r2, int c2)
     {
-        if (kingCastled(r1, c1, c2))
-        {
-            pieces[r2][c2] = pieces[r1][c1]; // Update King
-            pieces[r1][c1] = null;
-            if (c2 == 2)                     // Update Rook
-            {
-                pieces[r1][3] = pieces[r1][0];
-                pieces[r1][3].moved();
-                pieces[r1][0] = null;
-            }
-            else
-            {
-                pieces[r1][5] = pieces[r1][7];
-                pieces[r1][5].moved();
-                pieces[r1][7] = null;
-            }
-        }
-        else if (pawnEnPassant(r1, c1, r2, c2))
+        updateBoard(r1, c1, r2, c2, Bitboard.QUEEN);
+    }
+
+    // Same as above, with a choice of piece (Bitboard type) for a pawn that
+    // reaches the last row to become
+    public void updateBoard(int r1, int c1, int r2, int c2, int promotionType)
+    {
+        int from = Bitboard.square(r1, c1);
+        int to = Bitboard.square(r2, c2);
+        int colour = board.colourAt(from);
+        int type = board.typeAt(from);
+
+        boolean castle = kingCastled(r1, c1, c2);
+        boolean passant = pawnEnPassant(r1, c1, r2, c2);
+        boolean promotion = pawnAtEnd(r1, c1, r2, c2);
+
+        if (type == Bitboard.PAWN || board.isOccupied(to))
+            halfmoveClock = 0;
+        else
+            ++halfmoveClock;
+        if (colour == Bitboard.BLACK)
+            ++fullmoveNumber;
+
+        board.key ^= stateKey();
+        setPassantOpportunity(r1, c1, r2, c2);
+        castling &= CASTLE_MASK[from] & CASTLE_MASK[to];
+        board.key ^= stateKey();
+
+        if (castle)
         {
-            pieces[r2][c2] = pieces[r1][c1];
-            pieces[r1][c1] = null;
-            if (pieces[r2][c2].get_isWhite())
-            {
-                pieces[r2+1][c2] = null;
-            }
+            board.move(colour, Bitboard.KING, from, to); // Update King
+            if (c2 == 2)                                 // Update Rook
+                board.move(colour, Bitboard.ROOK, Bitboard.square(r1, 0),
+                        Bitboard.square(r1, 3));
             else
-            {
-                pieces[r2-1][c2] = null;
-            }
+                board.move(colour, Bitboard.ROOK, Bitboard.square(r1, 7),
+                        Bitboard.square(r1, 5));
         }
-        else if (pawnAtEnd(r1, c1, r2, c2))
+        else if (passant)
         {
-            pieces[r1][c1] = null;
-            pieces[r2][c2] = null;
-            if (_isWhiteTurn)
-                pieces[r2][c2] = new Queen (true);
-            else
-                pieces[r2][c2] = new Queen (false);
+            board.move(colour, Bitboard.PAWN, from, to);
+            board.remove(1 - colour, Bitboard.PAWN, Bitboard.square(r1, c2));
         }
         else
         {
-            setPassantOpportunity(r1, c1, r2, c2);
-            pieces[r2][c2] = pieces[r1][c1];
-            pieces[r1][c1] = null;
+            int captured = board.typeAt(to);
+            if (captured != Bitboard.EMPTY)
+                board.remove(1 - colour, captured, to);
+
+            if (promotion)
+            {
+                board.remove(colour, Bitboard.PAWN, from);
+                board.put(colour, promotionType, to);
+            }
+            else
+                board.move(colour, type, from, to);
         }
     }
 
     // Returns true if a move would put a pawn at the last rank/first rank
     public boolean pawnAtEnd(int r1, int c1, int r2, int c2)
     {
-        if (pieces[r1][c1] != null &&
-                pieces[r1][c1] instanceof Pawn)
+        if (board.typeAt(Bitboard.square(r1, c1)) == Bitboard.PAWN)
         {
             if (r2 == 0 || r2 == 7)
                 return true;
@@ -526,100 +935,70 @@ public class LogicBoard
     }
 
     // Determines if an enemy piece is threatening
-    // a piece (used for the king)
+    // a piece (used for the king). Looks outward from the square: pawn
+    // diagonals, knight jumps, the king ring and the first piece along each
+    // ray, so the cost doesn't grow with the number of enemy pieces.
     private boolean isThreatened(int r, int c, boolean isWhite)
     {
-        boolean isThreat = false;
-
-        for (int row = 0; row < 8; ++row)
-        {
-            for (int col = 0; col < 8; ++col)
-            {
-
-                if (pieces[row][col] != null &&
-                        pieces[row][col].get_isWhite() != isWhite &&
-                        pieces[row][col].canMove(row, col, r, c))
-                {
-                    if (pieces[row][col] instanceof Knight)
-                        isThreat = true;
-                    else if (pieces[row][col] instanceof Pawn && col != c)
-                        isThreat = true;
-                    else if (isPathClear (row, col, r, c) &&
-                            (pieces[row][col] instanceof Bishop ||
-                                    pieces[row][col] instanceof Queen ||
-                                    pieces[row][col] instanceof Rook ||
-                                    pieces[row][col] instanceof King ))
-                    {
-                        isThreat = true;
-                    }
-                }
-            }
-        }
-        return isThreat;
+        int enemy = (isWhite)? Bitboard.BLACK : Bitboard.WHITE;
+        return board.isAttacked(Bitboard.square(r, c), enemy, board.occupied);
     }
 
-    // Searches through the logic board, finds the king of the passed in
-    // boolean paramater's color. Then determines if that king is in check.
+    // Finds the king of the passed in boolean paramater's color.
+    // Then determines if that king is in check.
     public boolean kingInCheck(boolean isWhite)
     {
-        int kingRow = 0;
-        int kingCol = 0;
-        for (int r = 0; r < 8; ++r)
-        {
-            for (int c = 0; c < 8; ++c)
-            {
-                if (pieces[r][c] != null &&
-                        pieces[r][c] instanceof King &&
-                        pieces[r][c].get_isWhite() == isWhite)
-                {
-                    kingRow = r;
-                    kingCol = c;
-                }
-            }
-        }
+        int kingSq = board.kingSquare((isWhite)? Bitboard.WHITE : Bitboard.BLACK);
+        if (kingSq < 0)
+            return false;
+
         // Using the king's position. Determines if there are threats
-        return isThreatened(kingRow, kingCol, isWhite);
+        return isThreatened(kingSq / 8, kingSq % 8, isWhite);
     }
 
     // Determines if moving a piece puts the king in check
     // 1) Make the move. 2) Determine if in check 3) Undo the move
     private boolean moveEndangers(int r1, int c1, int r2, int c2)
     {
-        boolean endangers;
-        Piece temp = pieces[r2][c2];
-        pieces[r2][c2] = pieces[r1][c1];
-        pieces[r1][c1] = null;
-        if (kingInCheck(_isWhiteTurn))
-            endangers = true;
-        else
-            endangers = false;
-        pieces[r1][c1] = pieces[r2][c2];
-        pieces[r2][c2] = temp;
+        int from = Bitboard.square(r1, c1);
+        int to = Bitboard.square(r2, c2);
+        int colour = board.colourAt(from);
+        int type = board.typeAt(from);
+
+        // The captured piece, which for En Passant is beside the pawn
+        int capturedSq = to;
+        if (type == Bitboard.PAWN && c1 != c2 && !board.isOccupied(to))
+            capturedSq = Bitboard.square(r1, c2);
+        int captured = board.typeAt(capturedSq);
+
+        if (captured != Bitboard.EMPTY)
+            board.remove(1 - colour, captured, capturedSq);
+        board.move(colour, type, from, to);
+
+        boolean endangers = kingInCheck(colour == Bitboard.WHITE);
+
+        board.move(colour, type, to, from);
+        if (captured != Bitboard.EMPTY)
+            board.put(1 - colour, captured, capturedSq);
+
         return endangers;
     }
 
-    // Goes through the array, finds all pieces of the player whose turn it is,
+    // Goes through the player's pieces whose turn it is, and
     // determines if they have any available moves left. This is used for
     // Checkmate and Stalemate
     public boolean noMovesLeft()
     {
         boolean availableMove = false;
-        int count;
-        for (int r = 0; r < 8 && !availableMove; ++r)
+        long own = board.colours[sideToMove()];
+        findChecksAndPins(sideToMove());
+        while (own != 0 && !availableMove)
         {
-            for (int c = 0; c < 8 && !availableMove; ++c)
-            {
-                count = 0;
-                if (pieces[r][c] != null &&
-                        pieces[r][c].get_isWhite() == _isWhiteTurn)
-                {
-                    count = storePossibleMoves(r, c);
-                    if (count > 0)
-                        availableMove = true;
-                }
-            }
+            int sq = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            if (addPieceMoves(sq, 0, availableMoves, false) > 0)
+                availableMove = true;
         }
-        emptyPossibleMoves();
         if (!availableMove)
             return true;
         else
@@ -630,29 +1009,61 @@ public class LogicBoard
     // availableMoves, and returns the number of available moves
     public int storePossibleMoves(int r1, int c1)
     {
-        int count = 0;
-        for (int r2 = 0; r2 < 8; ++r2)
-        {
-            for (int c2 = 0; c2 < 8; ++c2)
-            {
-                if (isValid(r1, c1, r2, c2))
-                {
-                    availableMoves[count] = new PossibleCoordinates();
-                    availableMoves[count]._r1 = r1;
-                    availableMoves[count]._c1 = c1;
-                    availableMoves[count]._r2 = r2;
-                    availableMoves[count]._c2 = c2;
-                    ++count;
-                }
-            }
+        int sq = Bitboard.square(r1, c1);
+        if (board.isOccupied(sq))
+            findChecksAndPins(board.colourAt(sq));
+        return addPieceMoves(Bitboard.square(r1, c1), 0, availableMoves, false);
+    }
+
+    // Returns an array of the available moves for one color. The search
+    // doesn't use this, it generates packed moves into its buffers. A
+    // promotion is listed once, since updateBoard promotes to a queen.
+    public PossibleCoordinates[] storePossibleMoves(boolean isWhite)
+    {
+        int[] moves = new int[MAX_MOVES];
+        int count = 0;
+        int generated = generateMoves(isWhite, false, moves);
+        for (int i = 0; i < generated; ++i)
+        {
+            if (promotion(moves[i]) == 0 || promotion(moves[i]) == Bitboard.QUEEN)
+                moves[count++] = moves[i];
         }
+
+        PossibleCoordinates[] arr = new PossibleCoordinates[count];
+        for (int i = 0; i < count; ++i)
+        {
+            arr[i] = new PossibleCoordinates();
+            arr[i]._r1 = moveFrom(moves[i]) / 8;
+            arr[i]._c1 = moveFrom(moves[i]) % 8;
+            arr[i]._r2 = moveTo(moves[i]) / 8;
+            arr[i]._c2 = moveTo(moves[i]) % 8;
+        }
+        return arr;
+    }
+
+    // Stores the packed legal moves for one color in the moves array, and
+    // returns how many there are. With capturesOnly, only the captures and
+    // promotions, the only moves the quiescence search looks at. One call in
+    // SearchEvents.SAMPLE_RATE is timed, if the event is being recorded.
+    int generateMoves(boolean isWhite, boolean capturesOnly, int[] moves)
+    {
+        if ((++generateCalls & SearchEvents.SAMPLE_MASK) != 0 || !SearchEvents.isRecording())
+            return findMoves(isWhite, capturesOnly, moves);
+
+        SearchEvents.MoveGeneration event = new SearchEvents.MoveGeneration();
+        if (!event.isEnabled())
+            return findMoves(isWhite, capturesOnly, moves);
+
+        event.begin();
+        int count = findMoves(isWhite, capturesOnly, moves);
+        event.moves = count;
+        event.capturesOnly = capturesOnly;
+        event.commit();
         return count;
     }
 
-    // availableMoves, returns array of available moves for one color
-    public PossibleCoordinates[] storePossibleMoves(boolean isWhite)
+    private int findMoves(boolean isWhite, boolean capturesOnly, int[] moves)
     {
-        PossibleCoordinates[] arr = new PossibleCoordinates[250];
         boolean save = _isWhiteTurn;
         if (isWhite)
             _isWhiteTurn = true;
@@ -660,758 +1071,1520 @@ public class LogicBoard
             _isWhiteTurn = false;
 
         int count = 0;
-        for (int r = 0; r < 8; ++r)
+        long own = board.colours[sideToMove()];
+        findChecksAndPins(sideToMove());
+        while (own != 0)
         {
-            for (int c = 0; c < 8; ++c)
+            int sq = Long.numberOfTrailingZeros(own);
+            own &= own - 1;
+            count = addPieceMoves(sq, count, moves, capturesOnly);
+        }
+
+        _isWhiteTurn = save;
+        return count;
+    }
+
+    /*
+       Adds every legal move of the piece on square "from" to moves, starting
+       at index count, and returns the new count. The piece's reachable
+       squares come from its Bitboard attack set:
+       Knight and King use their precomputed sets, Rook / Bishop / Queen
+       look up their rays in the sliding attack tables, and the Pawn uses
+       its pushes and captures. The set is then cut down to the legal moves
+       with the checkMask and pin ray (findChecksAndPins must have been
+       called for the piece's colour). Only king moves are tested for
+       attacks, and En Passant, whose two pawns leaving the same row can
+       uncover a check, is still made and tested.
+       With capturesOnly, only moves onto enemy pieces, En Passant captures
+       and pawn moves onto the last rank are added.
+    */
+    private int addPieceMoves(int from, int count, int[] moves,
+                              boolean capturesOnly)
+    {
+        int colour = board.colourAt(from);
+        int type = board.typeAt(from);
+        int r1 = from / 8;
+        int c1 = from % 8;
+        long own = board.colours[colour];
+        long targets;
+
+        if (type == Bitboard.PAWN)
+            targets = pawnTargets(from, colour);
+        else if (type == Bitboard.KNIGHT)
+            targets = Bitboard.KNIGHT_ATTACKS[from] & ~own;
+        else if (type != Bitboard.KING)
+            targets = sliderAttacks(type, from) & ~own;
+        else
+        {
+            targets = Bitboard.KING_ATTACKS[from] & ~own;
+            if (capturesOnly)
+                targets &= board.colours[1 - colour];
+            else if (c1 == 4 && validKingMove(r1, c1, r1, 6))
+                targets |= Bitboard.bit(Bitboard.square(r1, 6));
+            if (!capturesOnly && c1 == 4 && validKingMove(r1, c1, r1, 2))
+                targets |= Bitboard.bit(Bitboard.square(r1, 2));
+        }
+
+        if (capturesOnly)
+        {
+            long captures = board.colours[1 - colour];
+            if (type == Bitboard.PAWN)
+                captures |= passantTarget(colour == Bitboard.WHITE) | LAST_RANKS;
+            targets &= captures;
+        }
+
+        long passant = 0L;
+        if (type != Bitboard.KING)
+        {
+            if (type == Bitboard.PAWN)
             {
-                if (pieces[r][c] != null)
+                passant = targets & passantTarget(colour == Bitboard.WHITE);
+                targets &= ~passant;
+            }
+            targets &= checkMask;
+            if ((pinned & Bitboard.bit(from)) != 0)
+                targets &= pinRays[from];
+        }
+
+        long enemies = board.colours[1 - colour];
+        while (targets != 0)
+        {
+            int to = Long.numberOfTrailingZeros(targets);
+            targets &= targets - 1;
+            if (type != Bitboard.KING || !board.isAttacked(to, 1 - colour,
+                    board.occupied ^ Bitboard.bit(from)))
+            {
+                int move = encodeMove(from, to, type, enemies);
+                moves[count] = move;
+                ++count;
+
+                // A pawn may become a rook, bishop or knight instead. The
+                // quiescence search only looks at becoming a queen.
+                if (promotion(move) != 0 && !capturesOnly)
                 {
-                    if (pieces[r][c].get_isWhite() == isWhite)
+                    for (int piece = Bitboard.KNIGHT; piece <= Bitboard.ROOK; ++piece)
                     {
-                        // Efficient way of checking for valid squares
-                        // Knight, need to check 8 squares (if they're within 8x8)
-                        // Rook and Queen check the CROSS (straight)
-                        // Bishop and Queen check the EX (diagonal)
-                        // PAWN CHECKS TWO UNITS AHEAD AND ITS DIAGONALS
-                        // king checks all squares around (IF ITS WITHIN 8X8)
-
-                        if (pieces[r][c] instanceof Knight)
-                        {
-                            if (r - 2 >= 0 && c + 1 <= 7)
-                            {
-                                if (isValid(r, c, r-2, c+1))
-                                {
-                                    addPossMove(r, c, r-2, c+1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r - 2 >= 0 && c - 1 >= 0)
-                            {
-                                if (isValid(r, c, r-2, c-1))
-                                {
-                                    addPossMove(r, c, r-2, c-1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r - 1 >= 0 && c + 2 <= 7)
-                            {
-                                if (isValid(r, c, r-1, c+2))
-                                {
-                                    addPossMove(r, c, r-1, c+2, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r - 1 >= 0 && c - 2 >= 0)
-                            {
-                                if (isValid(r, c, r-1, c-2))
-                                {
-                                    addPossMove(r, c, r-1, c-2, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r + 2 <= 7 && c + 1  <= 7)
-                            {
-                                if (isValid(r, c, r+2, c+1))
-                                {
-                                    addPossMove(r, c, r+2, c+1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r + 2 <= 7 && c - 1 >= 0)
-                            {
-                                if (isValid(r, c, r+2, c-1))
-                                {
-                                    addPossMove(r, c, r+2, c-1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r + 1 <= 7 && c + 2 <= 7)
-                            {
-                                if (isValid(r, c, r+1, c+2))
-                                {
-                                    addPossMove(r, c, r+1, c+2, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (r + 1 <= 7 && c - 2 >= 0)
-                            {
-                                if (isValid(r, c, r+1, c-2))
-                                {
-                                    addPossMove(r, c, r+1, c-2, count, arr);
-                                    ++count;
-                                }
-                            }
-                        }
-                        else if (pieces[r][c] instanceof Pawn)
-                        {
-                            if (pieces[r][c].get_isWhite())
-                            {
-                                if (r - 1 >= 0)
-                                {
-                                    if (isValid(r,c, r-1, c))
-                                    {
-                                        addPossMove(r, c, r-1, c, count, arr);
-                                        ++count;
-                                    }
-
-                                    if (c + 1 <= 7)
-                                    {
-                                        if (isValid(r, c, r-1, c+1))
-                                        {
-                                            addPossMove(r, c, r-1, c+1, count, arr);
-                                            ++count;
-                                        }
-                                    }
-                                    if (c - 1 >= 0)
-                                    {
-                                        if (isValid(r, c, r-1, c-1))
-                                        {
-                                            addPossMove(r, c, r-1, c -1, count, arr);
-                                            ++count;
-                                        }
-                                    }
-
-                                }
-                                if (r - 2 >= 0)
-                                {
-                                    if (isValid(r, c, r-2, c))
-                                    {
-                                        addPossMove(r, c, r-2, c, count, arr);
-                                        ++count;
-                                    }
-                                }
-                            }
-                            else
-                            {
-                                if (r + 1 <= 7)
-                                {
-                                    if (isValid(r,c, r+1, c))
-                                    {
-                                        addPossMove(r, c, r+1, c, count, arr);
-                                        ++count;
-                                    }
-
-                                    if (c + 1 <= 7)
-                                    {
-                                        if (isValid(r, c, r+1, c+1))
-                                        {
-                                            addPossMove(r, c, r+1, c+1, count, arr);
-                                            ++count;
-                                        }
-                                    }
-                                    if (c - 1 >= 0)
-                                    {
-                                        if (isValid(r, c, r+1, c-1))
-                                        {
-                                            addPossMove(r, c, r+1, c -1, count, arr);
-                                            ++count;
-                                        }
-                                    }
-                                }
-                                if (r + 2 <= 7)
-                                {
-                                    if (isValid(r, c, r+2, c))
-                                    {
-                                        addPossMove(r, c, r+2, c, count, arr);
-                                        ++count;
-                                    }
-                                }
-                            }
-                        }
-                        else if (pieces[r][c] instanceof King)
-                        {
-                            if (r + 1 <= 7)
-                            {
-                                if (isValid (r, c, r+1, c))
-                                {
-                                    addPossMove(r, c, r+1, c, count, arr);
-                                    ++count;
-                                }
-                                if (c + 1 <= 7)
-                                {
-                                    if (isValid(r, c, r+1, c+1))
-                                    {
-                                        addPossMove(r, c, r+1, c+1, count, arr);
-                                        ++count;
-                                    }
-                                }
-                                if (c - 1 >= 0)
-                                {
-                                    if (isValid(r, c, r+1, c-1))
-                                    {
-                                        addPossMove(r, c, r+1, c-1, count, arr);
-                                        ++count;
-                                    }
-                                }
-                            }
-                            if (r - 1 >= 0)
-                            {
-                                if (isValid(r, c, r-1, c))
-                                {
-                                    addPossMove(r, c, r-1, c, count, arr);
-                                    ++count;
-                                }
-                                if (c + 1 <= 7)
-                                {
-                                    if (isValid(r, c, r-1, c+1))
-                                    {
-                                        addPossMove(r, c, r-1, c+1, count, arr);
-                                        ++count;
-                                    }
-                                }
-                                if (c - 1 >= 0)
-                                {
-                                    if (isValid(r, c, r-1, c-1))
-                                    {
-                                        addPossMove(r, c, r-1, c-1, count, arr);
-                                        ++count;
-                                    }
-                                }
-                            }
-                            if (c + 1 <= 7)
-                            {
-                                if (isValid(r, c, r, c+1))
-                                {
-                                    addPossMove(r, c, r, c+1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (c - 1 >= 0)
-                            {
-                                if (isValid(r, c, r, c-1))
-                                {
-                                    addPossMove(r, c, r, c-1, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (c + 2 <= 7)
-                            {
-                                if (isValid(r, c, r, c+2))
-                                {
-                                    addPossMove(r, c, r, c+2, count, arr);
-                                    ++count;
-                                }
-                            }
-                            if (c - 2 >= 0)
-                            {
-                                if (isValid(r, c, r, c-2))
-                                {
-                                    addPossMove(r, c, r, c-2, count, arr);
-                                    ++count;
-                                }
-                            }
-                        }
-                        if (pieces[r][c] instanceof Rook || pieces[r][c] instanceof Queen)
-                        {
-                            int temp = r;
-                            while (temp >= 0) // up
-                            {
-                                if (isValid(r, c, temp, c))
-                                {
-                                    addPossMove(r, c, temp, c, count, arr);
-                                    ++count;
-                                }
-                                --temp;
-                            }
-                            temp = r;
-                            while (temp <= 7) // down
-                            {
-                                if (isValid(r, c, temp, c))
-                                {
-                                    addPossMove(r, c, temp, c, count, arr);
-                                    ++count;
-                                }
-                                ++temp;
-                            }
-                            temp = c;
-                            while (temp >= 0) // left
-                            {
-                                if (isValid(r, c, r, temp))
-                                {
-                                    addPossMove(r, c, r, temp, count, arr);
-                                    ++count;
-                                }
-                                --temp;
-                            }
-                            temp = c;
-                            while (temp <= 7) // right
-                            {
-                                if (isValid(r, c, r, temp))
-                                {
-                                    addPossMove(r, c, r, temp, count, arr);
-                                    ++count;
-                                }
-                                ++temp;
-                            }
-                        }
-                        if (pieces[r][c] instanceof Bishop || pieces[r][c] instanceof Queen)
-                        {
-                            int tempR = r;
-                            int tempC = c;
-                            while (tempR >= 0 && tempC <= 7) // up right
-                            {
-                                if (isValid(r, c, tempR, tempC))
-                                {
-                                    addPossMove(r, c, tempR, tempC, count, arr);
-                                    ++count;
-                                }
-                                --tempR;
-                                ++tempC;
-                            }
-                            tempR = r;
-                            tempC = c;
-                            while (tempR >= 0 && tempC >= 0) // up left
-                            {
-                                if (isValid(r, c, tempR, tempC))
-                                {
-                                    addPossMove(r, c, tempR, tempC, count, arr);
-                                    ++count;
-                                }
-                                --tempR;
-                                --tempC;
-                            }
-                            tempR = r;
-                            tempC = c;
-                            while (tempR <= 7 && tempC <= 7) // down right
-                            {
-                                if (isValid(r, c, tempR, tempC))
-                                {
-                                    addPossMove(r, c, tempR, tempC, count, arr);
-                                    ++count;
-                                }
-                                ++tempR;
-                                ++tempC;
-                            }
-                            tempR = r;
-                            tempC = c;
-                            while (tempR <= 7 && tempC >= 0) // down left
-                            {
-                                if (isValid(r, c, tempR, tempC))
-                                {
-                                    addPossMove(r, c, tempR, tempC, count, arr);
-                                    ++count;
-                                }
-                                ++tempR;
-                                --tempC;
-                            }
-                        }
+                        moves[count] = (move & ~PROMOTION_MASK) | (piece << 12);
+                        ++count;
                     }
                 }
             }
         }
-        PossibleCoordinates[] temp = new PossibleCoordinates[count];
-        for (int i = 0; i < count; ++i)
+
+        if (passant != 0)
         {
-            temp[i] = arr[i];
+            int to = Long.numberOfTrailingZeros(passant);
+            if (!moveEndangers(r1, c1, to / 8, to % 8))
+            {
+                moves[count] = from | (to << 6) | CAPTURE_FLAG | PASSANT_FLAG;
+                ++count;
+            }
         }
-        arr = temp;
-        _isWhiteTurn = save;
-        return arr;
+        return count;
     }
 
-    private void addPossMove
-            (int r1, int c1, int r2, int c2, int count, PossibleCoordinates[] arr)
+    // The squares a pawn can move to: one or two squares forward onto
+    // empty squares, and diagonally onto enemies or En Passant.
+    private long pawnTargets(int from, int colour)
     {
-        arr[count] = new PossibleCoordinates();
-        arr[count]._r1 = r1;
-        arr[count]._c1 = c1;
-        arr[count]._r2 = r2;
-        arr[count]._c2 = c2;
-    }
+        boolean isWhite = colour == Bitboard.WHITE;
+        int forward = (isWhite)? -8 : 8;
+        int startRow = (isWhite)? 6 : 1;
+        long targets = 0L;
 
-    // Empties the array of availableMoves
-    private void emptyPossibleMoves()
-    {
-        int i = 0;
-        while (availableMoves[i] != null)
+        int one = from + forward;
+        if (one >= 0 && one < 64 && !board.isOccupied(one))
         {
-            availableMoves[i++] = null;
+            targets |= Bitboard.bit(one);
+            if (from / 8 == startRow && !board.isOccupied(one + forward))
+                targets |= Bitboard.bit(one + forward);
         }
+        targets |= Bitboard.PAWN_ATTACKS[colour][from] &
+                (board.colours[1 - colour] | passantTarget(isWhite));
+        return targets;
+    }
+
+    // Packs a move of a piece of the given type (other than En Passant)
+    // along with its flags. Pawns reaching the last row become queens
+    // (addPieceMoves adds the other promotions).
+    private static int encodeMove(int from, int to, int type, long enemies)
+    {
+        int move = from | (to << 6);
+        if ((enemies & Bitboard.bit(to)) != 0)
+            move |= CAPTURE_FLAG;
+        if (type == Bitboard.PAWN && (to < 8 || to >= 56))
+            move |= Bitboard.QUEEN << 12;
+        else if (type == Bitboard.KING && (to - from == 2 || from - to == 2))
+            move |= CASTLE_FLAG;
+        return move;
     }
 
     // Returns the number of black pieces
     public int countNumBlackPieces()
     {
-        int count = 0;
-        for (int r = 0; r < 8; ++r)
+        return Long.bitCount(board.colours[Bitboard.BLACK]);
+    }
+
+    // Sets how long (in milliseconds) the computer may think per move
+    public void setTimeBudget(long millis)
+    {
+        timeBudget = millis;
+    }
+
+    // Sets how many positions the computer may visit per move
+    public void setNodeLimit(long limit)
+    {
+        nodeLimit = limit;
+    }
+
+    // Sets how many threads the computer searches with
+    public void setThreads(int n)
+    {
+        threads = Math.max(1, n);
+    }
+
+    // Sets how more than one thread share the search, LAZY_SMP or
+    // YOUNG_BROTHERS
+    public void setParallelMode(int mode)
+    {
+        parallelMode = mode;
+    }
+
+    // Sets the deepest iteration the computer searches to
+    public void setMaxDepth(int depth)
+    {
+        maxDepth = Math.min(depth, MAX_DEPTH);
+    }
+
+    // Sets the opening book the computer plays from while it can, or null
+    // for none
+    public void setBook(OpeningBook book)
+    {
+        this.book = book;
+    }
+
+    // Sets the endgame tablebases the search looks endings up in, or null
+    // for none
+    public void setTablebases(Tablebases tablebases)
+    {
+        this.tablebases = tablebases;
+    }
+
+    /*
+       AI computer turn, for the side whose turn it is.
+       Iterative deepening: searches 1 move deep, then 2, and so on, until
+       the time budget, node limit or maximum depth runs out. Each iteration
+       that finishes gives a best move; an iteration cut short is thrown
+       away. A forced mate, or a position with only one legal move, ends
+       the search right away. Helper threads (if any) search alongside.
+       If the position is in the opening book, its move is played without
+       searching at all.
+    */
+    public void computerTurn()
+    {
+        boolean recording = SearchEvents.isRecording();
+        SearchEvents.ComputerTurn turnEvent = null;
+        if (recording)
         {
-            for (int c = 0; c < 8; ++c)
+            turnEvent = new SearchEvents.ComputerTurn();
+            turnEvent.begin();
+        }
+        boolean maximizer = _isWhiteTurn;
+        long start = System.nanoTime();
+        long softDeadline = start + timeBudget * 1000000 / 2;
+        hardDeadline = start + timeBudget * 1000000;
+        nodes = 0;
+        stats.reset();
+        stopSearch = false;
+        table.newSearch();
+        ordering.newSearch();
+
+        completedDepth = 0;
+        int rootMoves = generateMoves(maximizer, false, moveBuffers[0]);
+        if (rootMoves > 0)
+        {
+            setBestMove(moveBuffers[0][0]);
+            completedIteration(0);
+        }
+
+        int bookMove = (book == null || rootMoves == 0)? 0 : book.pick(this);
+        if (bookMove != 0)
+        {
+            setBestMove(bookMove);
+            completedIteration(0);
+        }
+        boolean searching = rootMoves > 1 && bookMove == 0;
+
+        boolean splitting = threads > 1 && parallelMode == YOUNG_BROTHERS;
+        Thread[] workers = new Thread[0];
+        if (searching && !splitting)
+            workers = startHelpers(maximizer);
+
+        long iterationStart = start;
+        double score = 0;
+        for (int depth = 1; depth <= maxDepth && searching; ++depth)
+        {
+            SearchEvents.Iteration iterationEvent = null;
+            if (recording)
+            {
+                iterationEvent = new SearchEvents.Iteration();
+                iterationEvent.begin();
+            }
+            rootDepth = depth;
+            double eval;
+            if (splitting)
+                eval = splitSearch(depth, maximizer);
+            else
+                eval = minimax ( depth , Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, maximizer);
+            restore.clearStack();
+            if (recording && iterationEvent.isEnabled())
             {
-                if (pieces[r][c] != null &&
-                        !pieces[r][c].get_isWhite())
-                    ++count;
+                iterationEvent.depth = depth;
+                iterationEvent.nodes = nodes;
+                iterationEvent.score = eval;
+                iterationEvent.move = moveText(bestMove.move);
+                iterationEvent.completed = !stopSearch;
+                iterationEvent.commit();
             }
+            if (stopSearch)
+                break;
+
+            score = eval;
+            completedIteration(depth);
+            long now = System.nanoTime();
+            stats.completedIteration(depth, now - iterationStart, bestMove.move);
+            iterationStart = now;
+
+            if (eval > MATE_BOUND || eval < -MATE_BOUND)
+                break;
+            if (System.nanoTime() >= softDeadline)
+                break;
         }
-        return count;
-    }
 
-    // AI computer turn
-    public void computerTurn()
-    {
-        int numPieces = getNumPieces();
+        // Play the move of the deepest finished iteration of any thread
+        BestMove choice = completed;
+        int choiceDepth = completedDepth;
+        stopHelpers(workers);
+        for (int i = 0; i < workers.length; ++i)
+        {
+            if (helpers[i].completedDepth > choiceDepth)
+            {
+                choice = helpers[i].completed;
+                choiceDepth = helpers[i].completedDepth;
+            }
+        }
 
-//       if (numPieces < 5)
-//          DEPTH_MAX = 7;
-//       else if (numPieces < 9)
-//          DEPTH_MAX = 6;
-//       else if (numPieces < 16)
-//          DEPTH_MAX = 5;
-//       else
-//          DEPTH_MAX = 4;
+        SearchStats total = new SearchStats();
+        addStatsTo(total);
+        for (int i = 0; i < workers.length; ++i)
+            helpers[i].addStatsTo(total);
+        total.elapsedNanos = System.nanoTime() - start;
+        total.score = score;
+        total.move = choice.move;
+        lastSearch = total;
 
-        double bestEval = minimax ( DEPTH_MAX , Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, false);
-        restore.clearStack();
+        if (recording && turnEvent.isEnabled())
+        {
+            turnEvent.depth = choiceDepth;
+            turnEvent.nodes = total.nodes;
+            turnEvent.score = score;
+            turnEvent.move = moveText(choice.move);
+            turnEvent.threads = threads;
+            turnEvent.commit();
+        }
 
-        CompLoc.r1 = bestMove.r1;
-        CompLoc.c1 = bestMove.c1;
-        CompLoc.r2 = bestMove.r2;
-        CompLoc.c2 = bestMove.c2;
+        CompLoc.r1 = choice.r1;
+        CompLoc.c1 = choice.c1;
+        CompLoc.r2 = choice.r2;
+        CompLoc.c2 = choice.c2;
+        CompLoc.promotion = (promotion(choice.move) != 0)?
+                promotion(choice.move) : Bitboard.QUEEN;
     }
 
-    // Provide an evaluation for a board position
-    // Counts points for existence of pieces and factors WHERE they are.
-    public double evaluatePosition()
+    // Keeps the best move of an iteration that finished
+    private void completedIteration(int depth)
     {
-        double total = 0;
-        int multiplier;
-        for (int r = 0; r < 8; ++r)
+        completedDepth = depth;
+        completed.r1 = bestMove.r1;
+        completed.c1 = bestMove.c1;
+        completed.r2 = bestMove.r2;
+        completed.c2 = bestMove.c2;
+        completed.move = bestMove.move;
+    }
+
+    // Starts a thread for each helper board, after copying this board's
+    // position onto it. Helper boards are kept between searches, so their
+    // history tables carry over like the main board's.
+    private Thread[] startHelpers(final boolean maximizer)
+    {
+        if (helpers.length != threads - 1)
         {
-            for (int c = 0; c < 8; ++c)
+            LogicBoard[] resized = new LogicBoard[threads - 1];
+            for (int i = 0; i < resized.length; ++i)
+                resized[i] = (i < helpers.length)? helpers[i] : new LogicBoard(this);
+            helpers = resized;
+        }
+
+        Thread[] workers = new Thread[helpers.length];
+        for (int i = 0; i < helpers.length; ++i)
+        {
+            final LogicBoard helper = helpers[i];
+            // Odd helpers start one iteration deeper than the main search
+            final int startDepth = 1 + (i + 1) % 2;
+            helper.copyPosition(this);
+            helper.maxDepth = maxDepth;
+            helper.stopSearch = false;
+            workers[i] = new Thread(new Runnable()
             {
-                if (pieces[r][c] != null)
+                public void run()
                 {
-                    if (pieces[r][c].get_isWhite())
-                    {
-                        if (pieces[r][c] instanceof Pawn)
-                            total += 10.0 + pawn_table[r][c];
-                        else if (pieces[r][c] instanceof Knight)
-                            total += 30.0 + knight_table[r][c];
-                        else if (pieces[r][c] instanceof Bishop)
-                            total += 30.0 + bishop_table[r][c];
-                        else if (pieces[r][c] instanceof Rook)
-                            total += 50.0 + rook_table[r][c];
-                        else if (pieces[r][c] instanceof Queen)
-                            total += 90.0 + queen_table[r][c];
-                        else
-                            total += 900.0 + king_table[r][c];
-                    }
-                    else
-                    {
-                        if (pieces[r][c] instanceof Pawn)
-                            total += -10.0 - pawn_table[(-r+7)][c];
-                        else if (pieces[r][c] instanceof Knight)
-                            total += -30.0 - knight_table[(-r+7)][c];
-                        else if (pieces[r][c] instanceof Bishop)
-                            total += -30.0 - bishop_table[(-r+7)][c];
-                        else if (pieces[r][c] instanceof Rook)
-                            total += -50.0 - rook_table[(-r+7)][c];
-                        else if (pieces[r][c] instanceof Queen)
-                            total += -90.0 - queen_table[(-r+7)][c];
-                        else
-                            total += -900.0 - king_table[(-r+7)][c];
-                    }
+                    helper.helperSearch(maximizer, startDepth);
                 }
+            }, "search-helper-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        return workers;
+    }
+
+    // Tells the helper threads to stop, and waits for them to finish
+    private void stopHelpers(Thread[] workers)
+    {
+        for (int i = 0; i < workers.length; ++i)
+            helpers[i].stopSearch = true;
+        for (int i = 0; i < workers.length; ++i)
+        {
+            try
+            {
+                workers[i].join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
             }
         }
-        return total;
     }
 
-    public void addOnStack(int r1, int c1, int r2, int c2)
+    // Stops a search running on another thread the next time it checks its
+    // limits. computerTurn then plays the move of its deepest completed
+    // iteration, as if it had run out of time.
+    public void stop()
     {
-        boolean castle = kingCastled(r1, c1, c2);
-        boolean promotion = pawnAtEnd(r1, c1, r2, c2);
-        boolean passant = pawnEnPassant(r1, c1, r2, c2);
-        boolean startMoved = true;
-        boolean captureMoved = true;
-        boolean startIsWhite = false;
-        if (pieces[r1][c1] != null)
-            startIsWhite = pieces[r1][c1].get_isWhite();
+        stopSearch = true;
+        SplitPoint sp = split;
+        if (sp != null)
+            sp.root.cancel();
+    }
 
-        boolean captureIsWhite = false;
-        String captureName = "NULL";
+    // Searches the position of the side to move to exactly the given depth,
+    // with no iterative deepening, time budget or helper threads, and
+    // returns its score. Whatever the table holds from earlier searches is
+    // still used; clearTable first for a search from scratch.
+    public double searchToDepth(int depth)
+    {
+        nodes = 0;
+        stats.reset();
+        hardDeadline = Long.MAX_VALUE;
+        stopSearch = false;
+        table.newSearch();
+        ordering.newSearch();
+
+        rootDepth = depth;
+        double eval = minimax ( depth , Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, _isWhiteTurn);
+        restore.clearStack();
+        return eval;
+    }
 
-        if (pieces[r2][c2] != null)
-            captureIsWhite = pieces[r2][c2].get_isWhite();
+    // Empties the transposition table
+    public void clearTable()
+    {
+        table.clear();
+    }
 
-        if (pieces[r1][c1] instanceof Pawn ||
-                pieces[r1][c1] instanceof Rook ||
-                pieces[r1][c1] instanceof King)
-            startMoved = pieces[r1][c1].get_hasMoved();
+    // Run by a helper thread: deepens from its starting depth until it is
+    // stopped by the main search (it has no deadline or node limit itself)
+    private void helperSearch(boolean maximizer, int startDepth)
+    {
+        nodes = 0;
+        stats.reset();
+        hardDeadline = Long.MAX_VALUE;
+        completedDepth = 0;
+        ordering.newSearch();
 
-        if (pieces[r2][c2] != null)
+        for (int depth = startDepth; depth <= maxDepth && !stopSearch; ++depth)
         {
-            if (pieces[r2][c2] instanceof Pawn ||
-                    pieces[r2][c2] instanceof Rook ||
-                    pieces[r2][c2] instanceof King)
-                captureMoved = pieces[r2][c2].get_hasMoved();
+            rootDepth = depth;
+            minimax ( depth , Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, maximizer);
+            restore.clearStack();
+            if (stopSearch)
+                break;
+            completedIteration(depth);
         }
+    }
 
-        if (pieces[r2][c2] != null)
+    // Positions visited by the helper threads so far. They are read while
+    // the helpers are running, so the count may be slightly behind.
+    private long helperNodes()
+    {
+        long total = 0;
+        for (int i = 0; i < helpers.length; ++i)
+            total += helpers[i].nodes;
+        return total;
+    }
+
+    // Stops the search once it passes the node limit or the hard deadline.
+    // The clock (and the other threads' node counts) are only read every
+    // 1024 positions. The first iteration is never stopped, so there is
+    // always a move to play. Under a split point, the search also stops
+    // when the split point is cancelled, and stops every other task when it
+    // hits a limit itself.
+    private void checkLimits()
+    {
+        if (rootDepth == 1)
+            return;
+        if (split == null)
         {
-            if (pieces[r2][c2] instanceof Pawn)
-                captureName = "PAWN";
-            else if (pieces[r2][c2] instanceof Rook)
-                captureName = "ROOK";
-            else if (pieces[r2][c2] instanceof Bishop)
-                captureName = "BISHOP";
-            else if (pieces[r2][c2] instanceof Knight)
-                captureName = "KNIGHT";
-            else if (pieces[r2][c2] instanceof King)
-                captureName = "KING";
-            else if (pieces[r2][c2] instanceof Queen)
-                captureName = "QUEEN";
+            if (nodes >= nodeLimit)
+                stopSearch = true;
+            else if ((nodes & 1023) == 0 && (System.nanoTime() >= hardDeadline ||
+                    (threads > 1 && nodes + helperNodes() >= nodeLimit)))
+                stopSearch = true;
+        }
+        else if ((nodes & 1023) == 0)
+        {
+            if (split.addNodes(1024) >= nodeLimit || System.nanoTime() >= hardDeadline)
+            {
+                stopSearch = true;
+                split.root.cancel();
+            }
+            else if (split.isCancelled())
+                stopSearch = true;
         }
-
-        restore.insert(r1, c1, r2, c2, startMoved, captureMoved, startIsWhite,
-                captureIsWhite, captureName, castle, passant, promotion);
     }
 
-    public void undo()
+    /*
+       Searches the root to the given depth with young brothers wait, on a
+       pool of as many threads as the search is set to use. This board
+       searches the root itself, from inside the pool.
+    */
+    private double splitSearch(final int depth, final boolean maximizer)
     {
-        MoveUndo s = restore.pop();
-        if (s._castle)
+        if (pool == null || pool.getParallelism() != threads)
         {
-            pieces[s._r1][s._c1] = pieces[s._r2][s._c2];
-            pieces[s._r1][s._c1].undoMoved();
-            pieces[s._r2][s._c2] = null;
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        }
 
-            if (s._c2 == 6)
+        split = new SplitPoint(null, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, maximizer, 0, 0);
+        double eval = pool.invoke(new RecursiveTask<Double>()
+        {
+            protected Double compute()
             {
-                pieces[s._r1][7] = pieces[s._r1][5];
-                pieces[s._r1][7].undoMoved();
-                pieces[s._r1][5] = null;
+                return parallelMinimax(depth, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, maximizer);
             }
-            else
+        });
+        if (split.isCancelled())
+            stopSearch = true;
+        for (LogicBoard brother : split.spares)
+            brother.addStatsTo(stats);
+        split = null;
+        return eval;
+    }
+
+    /*
+       Minimax for the young brothers wait search. Near the leaves (fewer than
+       SPLIT_DEPTH moves left) there is too little work to share, so it is
+       plain minimax. Otherwise the eldest brother is searched first, by this
+       thread, and splits further down itself. If it doesn't cause a cutoff,
+       this node becomes a split point, and the younger brothers are forked
+       and searched with whatever window the split point has when each one
+       starts. This thread helps with the tasks until all of them are done.
+    */
+    private double parallelMinimax(int depth, double alpha, double beta, boolean maximizer)
+    {
+        if (depth < SPLIT_DEPTH)
+            return minimax(depth, alpha, beta, maximizer);
+
+        ++nodes;
+        checkLimits();
+        if (stopSearch)
+            return 0;
+
+        int ply = rootDepth - depth;
+
+        // An ending in the tablebases needs no searching (the root still
+        // has to choose a move)
+        if (ply > 0 && tablebases != null)
+        {
+            double known = tablebaseScore(maximizer, ply);
+            if (!Double.isNaN(known))
+                return known;
+        }
+
+        long key = positionKey(maximizer);
+
+        long entry = table.probe(key);
+        int hashMove = -1;
+        ++stats.tableProbes;
+        if (entry != 0)
+        {
+            ++stats.tableHits;
+            hashMove = TranspositionTable.move(entry);
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth)
             {
-                pieces[s._r1][0] = pieces[s._r1][3];
-                pieces[s._r1][0].undoMoved();
-                pieces[s._r1][3] = null;
+                double score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT ||
+                        (bound == TranspositionTable.LOWER && score >= beta) ||
+                        (bound == TranspositionTable.UPPER && score <= alpha))
+                    return score;
             }
         }
-        else if (s._passant)
+
+        int[] possMoves = moveBuffers[ply];
+        int count = generateMoves(maximizer, false, possMoves);
+        if (count == 0)
         {
-            pieces[s._r1][s._c1] = pieces[s._r2][s._c2];
-            pieces[s._r2][s._c2] = null;
-            pieces[s._r1][s._c2] = new Pawn (!s._sWhite);
-            pieces[s._r1][s._c2].moved();
-            lastMove.name = "Pawn";
-            if (s._r2 == 2)
-                lastMove.r1 = 1;
-            else
-                lastMove.r1 = 6;
-            lastMove.r2 = s._r1;
-            lastMove.c1 = s._c2;
-            lastMove.c2 = s._c2;
+            if (kingInCheck(maximizer))
+                return (maximizer)? -(MATE - ply) : (MATE - ply);
+            return 0;
         }
-        else if (s._promotion)
+        ordering.scoreMoves(board, possMoves, count, hashMove, ply);
+        int colour = (maximizer)? Bitboard.WHITE : Bitboard.BLACK;
+        double alphaOrig = alpha;
+        double betaOrig = beta;
+
+        // The eldest brother
+        ordering.pickMove(possMoves, count, 0, ply);
+        makeMove(possMoves[0]);
+        double bestEval = parallelMinimax(depth - 1, alpha, beta, !maximizer);
+        undo();
+        if (stopSearch)
+            return 0;
+        if (ply == 0)
+            setBestMove(possMoves[0]);
+
+        if (maximizer)
+            alpha = Math.max(alpha, bestEval);
+        else
+            beta = Math.min(beta, bestEval);
+        int bestIndex = 0;
+
+        if (beta <= alpha)
+            ordering.cutoff(possMoves[0], colour, depth, ply, 0);
+        else if (count > 1)
         {
-            if (s._r2 == 0)
+            // The younger brothers, in the order they would have been tried
+            SplitPoint sp = new SplitPoint(split, alpha, beta, maximizer, bestEval, 0);
+            BrotherTask[] tasks = new BrotherTask[count - 1];
+            for (int i = 1; i < count; ++i)
             {
-                pieces[s._r1][s._c1] = new Pawn (true);
-                pieces[s._r1][s._c1].moved();
+                ordering.pickMove(possMoves, count, i, ply);
+                tasks[i - 1] = new BrotherTask(this, possMoves[i], i, depth, maximizer, sp);
             }
-            else if (s._r2 == 7)
+            ForkJoinTask.invokeAll(tasks);
+
+            // Cancelled from above, or out of time / nodes
+            if (split != null && split.isCancelled())
             {
-                pieces[s._r1][s._c1] = new Pawn (false);
-                pieces[s._r1][s._c1].moved();
+                stopSearch = true;
+                return 0;
             }
-            if (s._cName.equals("NULL"))
-                pieces[s._r2][s._c2] = null;
-            else if (s._cName.equals("KING"))
+
+            bestEval = sp.getBestEval();
+            bestIndex = sp.getBestIndex();
+            if (ply == 0)
+                setBestMove(possMoves[bestIndex]);
+            if ((maximizer && bestEval >= beta) || (!maximizer && bestEval <= alpha))
+                ordering.cutoff(possMoves[bestIndex], colour, depth, ply, bestIndex);
+        }
+
+        int bound = TranspositionTable.EXACT;
+        if (bestEval <= alphaOrig)
+            bound = TranspositionTable.UPPER;
+        else if (bestEval >= betaOrig)
+            bound = TranspositionTable.LOWER;
+        table.store(key, depth, bound, scoreToTable(bestEval, ply),
+                possMoves[bestIndex] & MOVE_ID);
+
+        return bestEval;
+    }
+
+    // Run by a BrotherTask: searches one younger brother of a split point
+    // at this board's position, on a spare board of the search (or a new
+    // one), and reports its score to the split point
+    void searchBrother(int move, int index, int depth,
+                       boolean maximizer, SplitPoint sp)
+    {
+        if (sp.isCancelled())
+            return;
+
+        LogicBoard brother = sp.root.spares.poll();
+        if (brother == null)
+            brother = new LogicBoard(this);
+        else
+            brother.copyPosition(this);
+        brother.rootDepth = rootDepth;
+        brother.hardDeadline = hardDeadline;
+        brother.nodeLimit = nodeLimit;
+        // brother.nodes keeps counting across tasks, so that every 1024th
+        // node still checks the clock when the tasks are small
+        brother.stopSearch = false;
+        brother.split = sp;
+
+        brother.makeMove(move);
+        double eval = brother.parallelMinimax(depth - 1, sp.getAlpha(), sp.getBeta(),
+                !maximizer);
+        brother.undo();
+        if (!brother.stopSearch)
+            sp.report(eval, index);
+        sp.root.spares.offer(brother);
+    }
+
+    // Returns the piece-square table of a piece type
+    private double[][] pieceTable(int type)
+    {
+        if (type == Bitboard.PAWN)
+            return pawn_table;
+        else if (type == Bitboard.KNIGHT)
+            return knight_table;
+        else if (type == Bitboard.BISHOP)
+            return bishop_table;
+        else if (type == Bitboard.ROOK)
+            return rook_table;
+        else if (type == Bitboard.QUEEN)
+            return queen_table;
+        else
+            return king_table;
+    }
+
+    // Builds the squareValues table out of the piece values and tables.
+    // Black's tables are white's flipped upside down.
+    private double[][] buildSquareValues()
+    {
+        double[][] values = new double[12][64];
+        for (int type = Bitboard.PAWN; type <= Bitboard.KING; ++type)
+        {
+            double[][] table = pieceTable(type);
+            for (int sq = 0; sq < 64; ++sq)
             {
-                pieces[s._r2][s._c2] = new King (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                values[Bitboard.WHITE * 6 + type][sq] =
+                        PIECE_VALUES[type] + table[sq / 8][sq % 8];
+                values[Bitboard.BLACK * 6 + type][sq] =
+                        -PIECE_VALUES[type] - table[(-(sq / 8)+7)][sq % 8];
             }
-            else if (s._cName.equals("ROOK"))
+        }
+        return values;
+    }
+
+    // Provide an evaluation for a board position
+    // Counts points for existence of pieces and factors WHERE they are.
+    // updateBoard and undo keep the total up to date as pieces move, so
+    // this only reads it. Run with assertions on (java -ea) to check it
+    // against a full count at every call.
+    public double evaluatePosition()
+    {
+        assert board.score == countEvaluation() :
+                "Incremental evaluation " + board.score + " != " + countEvaluation();
+        return board.score;
+    }
+
+    // Counts the evaluation from scratch, piece by piece
+    private double countEvaluation()
+    {
+        double total = 0;
+        for (int type = Bitboard.PAWN; type <= Bitboard.KING; ++type)
+        {
+            double[][] table = pieceTable(type);
+
+            long white = board.pieceSet(Bitboard.WHITE, type);
+            while (white != 0)
             {
-                pieces[s._r2][s._c2] = new Rook (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                int sq = Long.numberOfTrailingZeros(white);
+                white &= white - 1;
+                total += PIECE_VALUES[type] + table[sq / 8][sq % 8];
             }
-            else if (s._cName.equals("PAWN"))
+
+            long black = board.pieceSet(Bitboard.BLACK, type);
+            while (black != 0)
             {
-                pieces[s._r2][s._c2] = new Pawn (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                int sq = Long.numberOfTrailingZeros(black);
+                black &= black - 1;
+                total += -PIECE_VALUES[type] - table[(-(sq / 8)+7)][sq % 8];
             }
-            else if (s._cName.equals("BISHOP"))
+        }
+        return total;
+    }
+
+    public void addOnStack(int r1, int c1, int r2, int c2)
+    {
+        int from = Bitboard.square(r1, c1);
+        int to = Bitboard.square(r2, c2);
+
+        int move = from | (to << 6);
+        if (kingCastled(r1, c1, c2))
+            move |= CASTLE_FLAG;
+        else if (pawnEnPassant(r1, c1, r2, c2))
+            move |= PASSANT_FLAG;
+        else if (pawnAtEnd(r1, c1, r2, c2))
+            move |= Bitboard.QUEEN << 12;
+
+        pushUndo(move);
+    }
+
+    // Saves what's needed to undo a packed move, before it is made
+    private void pushUndo(int move)
+    {
+        int from = moveFrom(move);
+        int to = moveTo(move);
+        int mover = board.pieceAt(from);
+        int captured = board.pieceAt(to);
+
+        // The pawn that could be captured En Passant before this move
+        int passantSquare = -1;
+        if (lastMove.name != null)
+            passantSquare = Bitboard.square(lastMove.r2, lastMove.c2);
+
+        restore.insert(move, mover, captured, castling, passantSquare, halfmoveClock);
+    }
+
+    public void undo()
+    {
+        int s = restore.pop();
+        int move = restore.move(s);
+        int colour = restore.mover(s) / 6;
+        int type = restore.mover(s) % 6;
+        board.key ^= stateKey();
+        int from = moveFrom(move);
+        int to = moveTo(move);
+
+        if ((move & CASTLE_FLAG) != 0)
+        {
+            board.move(colour, Bitboard.KING, to, from);
+
+            // The rook stands beside the king, on the side it came from
+            if (to > from)
+                board.move(colour, Bitboard.ROOK, to - 1, to + 1);
+            else
+                board.move(colour, Bitboard.ROOK, to + 1, to - 2);
+        }
+        else if ((move & PASSANT_FLAG) != 0)
+        {
+            board.move(colour, Bitboard.PAWN, to, from);
+            board.put(1 - colour, Bitboard.PAWN, (from & ~7) | (to & 7));
+        }
+        else
+        {
+            if (promotion(move) != 0)
             {
-                pieces[s._r2][s._c2] = new Bishop (s._cWhite);
+                board.remove(colour, promotion(move), to);
+                board.put(colour, Bitboard.PAWN, from);
             }
-            else if (s._cName.equals("KNIGHT"))
+            else
+                board.move(colour, type, to, from);
+
+            int captured = restore.captured(s);
+            if (captured >= 0)
+                board.put(captured / 6, captured % 6, to);
+        }
+
+        castling = restore.castling(s);
+        halfmoveClock = restore.halfmoveClock(s);
+        if (colour == Bitboard.BLACK)
+            --fullmoveNumber;
+        int passantSquare = restore.passantSquare(s);
+        if (passantSquare < 0)
+        {
+            lastMove.r1 = 0;
+            lastMove.c1 = 0;
+            lastMove.r2 = 0;
+            lastMove.c2 = 0;
+            lastMove.name = null;
+        }
+        else
+        {
+            // A pawn that advanced two squares to row 3 started on row 1,
+            // and one that advanced to row 4 started on row 6.
+            lastMove.r2 = passantSquare / 8;
+            lastMove.c2 = passantSquare % 8;
+            lastMove.r1 = (lastMove.r2 == 3)? 1 : 6;
+            lastMove.c1 = lastMove.c2;
+            lastMove.name = "Pawn";
+        }
+        board.key ^= stateKey();
+    }
+
+    /*
+       Minimax with alpha-beta pruning. Scores are from white's point of view,
+       white (the maximizer) wants them high and black wants them low.
+
+       A position is first looked up in the transposition table, and if it was
+       already searched at least this deep, the stored score is used when it
+       settles the question. After searching, the score is stored along with
+       its bound type: a search cut off by beta (maximizer) or alpha
+       (minimizer) only knows a bound on the score, one that never beat the
+       window only knows the opposite bound, and anything else is exact.
+    */
+    public double minimax ( int depth, double alpha, double beta, boolean maximizer)
+    {
+        if (depth == 0)
+            return evaluateLeaf(alpha, beta, maximizer);
+
+        ++nodes;
+        checkLimits();
+        if (stopSearch)
+            return 0;
+
+        int ply = rootDepth - depth;
+
+        // An ending in the tablebases needs no searching (the root still
+        // has to choose a move)
+        if (ply > 0 && tablebases != null)
+        {
+            double known = tablebaseScore(maximizer, ply);
+            if (!Double.isNaN(known))
+                return known;
+        }
+
+        long key = positionKey(maximizer);
+
+        // The root is always searched, since it has to choose a move
+        long entry = table.probe(key);
+        int hashMove = -1;
+        ++stats.tableProbes;
+        if (entry != 0)
+        {
+            ++stats.tableHits;
+            hashMove = TranspositionTable.move(entry);
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth)
             {
-                pieces[s._r2][s._c2] = new Knight (s._cWhite);
+                double score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT ||
+                        (bound == TranspositionTable.LOWER && score >= beta) ||
+                        (bound == TranspositionTable.UPPER && score <= alpha))
+                    return score;
             }
-            else if (s._cName.equals("QUEEN"))
+        }
+
+        int[] possMoves = moveBuffers[ply];
+        int count = generateMoves(maximizer, false, possMoves);
+        if (count == 0)
+        {
+            // Being checkmated is the worst outcome (sooner is worse),
+            // stalemate is a draw
+            if (kingInCheck(maximizer))
+                return (maximizer)? -(MATE - ply) : (MATE - ply);
+            return 0;
+        }
+        ordering.scoreMoves(board, possMoves, count, hashMove, ply);
+        int colour = (maximizer)? Bitboard.WHITE : Bitboard.BLACK;
+
+        double alphaOrig = alpha;
+        double betaOrig = beta;
+        double bestEval = (maximizer)? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        int bestIndex = 0;
+        double eval;
+
+        if (maximizer)
+        {
+            for (int i = 0; i < count; ++i)
             {
-                pieces[s._r2][s._c2] = new Queen (s._cWhite);
+                ordering.pickMove(possMoves, count, i, ply);
+                makeMove(possMoves[i]);
+
+                eval = minimax ( depth - 1, alpha, beta,  false);
+                if (eval > bestEval)
+                {
+                    bestEval = eval;
+                    bestIndex = i;
+                    if (ply == 0)
+                        setBestMove(possMoves[i]);
+                }
+                undo();
+                if (stopSearch)
+                    return 0;
+                alpha = Math.max(alpha, eval);
+                if (beta <= alpha)
+                {
+                    ordering.cutoff(possMoves[i], colour, depth, ply, i);
+                    break;
+                }
             }
         }
         else
         {
-            pieces[s._r1][s._c1] = pieces[s._r2][s._c2];
-            if (pieces[s._r1][s._c1] != null &&
-                    pieces[s._r1][s._c1] instanceof Pawn ||
-                    pieces[s._r1][s._c1] instanceof Rook ||
-                    pieces[s._r1][s._c1] instanceof King)
-                if (!s._sMoved)
-                    pieces[s._r1][s._c1].undoMoved();
-            if (s._cName.equals("NULL"))
-                pieces[s._r2][s._c2] = null;
-            else if (s._cName.equals("KING"))
+            for (int i = 0; i < count; ++i)
             {
-                pieces[s._r2][s._c2] = new King (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                ordering.pickMove(possMoves, count, i, ply);
+                makeMove(possMoves[i]);
+
+                eval = minimax ( depth - 1, alpha, beta, true);
+                if (eval < bestEval)
+                {
+                    bestEval = eval;
+                    bestIndex = i;
+                    if (ply == 0)
+                        setBestMove(possMoves[i]);
+                }
+
+                undo();
+                if (stopSearch)
+                    return 0;
+
+                beta = Math.min(beta, eval);
+                if (beta <= alpha)
+                {
+                    ordering.cutoff(possMoves[i], colour, depth, ply, i);
+                    break;
+                }
             }
-            else if (s._cName.equals("ROOK"))
+        }
+
+        int bound = TranspositionTable.EXACT;
+        if (bestEval <= alphaOrig)
+            bound = TranspositionTable.UPPER;
+        else if (bestEval >= betaOrig)
+            bound = TranspositionTable.LOWER;
+        table.store(key, depth, bound, scoreToTable(bestEval, ply),
+                possMoves[bestIndex] & MOVE_ID);
+
+        return bestEval;
+    }
+
+    // Scores a leaf of minimax with the quiescence search. One leaf in
+    // SearchEvents.SAMPLE_RATE is timed, if the event is being recorded.
+    private double evaluateLeaf(double alpha, double beta, boolean maximizer)
+    {
+        if ((++leafCalls & SearchEvents.SAMPLE_MASK) != 0 || !SearchEvents.isRecording())
+            return quiesce(alpha, beta, maximizer, rootDepth);
+
+        SearchEvents.LeafEvaluation event = new SearchEvents.LeafEvaluation();
+        if (!event.isEnabled())
+            return quiesce(alpha, beta, maximizer, rootDepth);
+
+        long before = nodes;
+        event.begin();
+        double eval = quiesce(alpha, beta, maximizer, rootDepth);
+        event.nodes = nodes - before;
+        event.score = eval;
+        event.commit();
+        return eval;
+    }
+
+    /*
+       Quiescence search, run where minimax runs out of depth. Instead of
+       evaluating a position in the middle of a trade, it keeps playing
+       captures until the position is quiet.
+
+       - Stand pat: the side to move doesn't have to capture, so the static
+         evaluation is already a bound. If it beats beta (alpha for the
+         minimizer), there is no need to look at captures at all.
+       - Delta pruning: a capture that can't raise the score to alpha (lower
+         it to beta) even after winning the victim plus a margin is skipped.
+       - A side in check can't stand pat, so all of its moves are searched,
+         which also finds checkmates.
+    */
+    private double quiesce(double alpha, double beta, boolean maximizer, int ply)
+    {
+        ++nodes;
+        ++stats.quiescenceNodes;
+        if (ply > stats.selectiveDepth)
+            stats.selectiveDepth = ply;
+        checkLimits();
+        if (stopSearch)
+            return 0;
+
+        boolean inCheck = kingInCheck(maximizer);
+        double standPat = evaluatePosition();
+        if (ply >= MoveOrdering.MAX_PLY - 1)
+            return standPat;
+
+        int[] captures = moveBuffers[ply];
+        int count;
+        double bestEval;
+        if (inCheck)
+        {
+            count = generateMoves(maximizer, false, captures);
+            if (count == 0)
+                return (maximizer)? -(MATE - ply) : (MATE - ply);
+            bestEval = (maximizer)? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        else
+        {
+            if (maximizer)
             {
-                pieces[s._r2][s._c2] = new Rook (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                if (standPat >= beta)
+                    return standPat;
+                alpha = Math.max(alpha, standPat);
             }
-            else if (s._cName.equals("PAWN"))
+            else
             {
-                pieces[s._r2][s._c2] = new Pawn (s._cWhite);
-                if (s._cMoved)
-                    pieces[s._r2][s._c2].moved();
+                if (standPat <= alpha)
+                    return standPat;
+                beta = Math.min(beta, standPat);
             }
-            else if (s._cName.equals("BISHOP"))
+            count = generateMoves(maximizer, true, captures);
+            bestEval = standPat;
+        }
+
+        ordering.scoreMoves(board, captures, count, -1, ply);
+        double eval;
+
+        for (int i = 0; i < count; ++i)
+        {
+            ordering.pickMove(captures, count, i, ply);
+            if (!inCheck)
             {
-                pieces[s._r2][s._c2] = new Bishop (s._cWhite);
+                double gain = captureGain(captures[i]) + DELTA_MARGIN;
+                if ((maximizer && standPat + gain <= alpha) ||
+                        (!maximizer && standPat - gain >= beta))
+                    continue;
             }
-            else if (s._cName.equals("KNIGHT"))
+
+            makeMove(captures[i]);
+            eval = quiesce(alpha, beta, !maximizer, ply + 1);
+            undo();
+            if (stopSearch)
+                return 0;
+
+            if (maximizer)
             {
-                pieces[s._r2][s._c2] = new Knight (s._cWhite);
+                bestEval = Math.max(bestEval, eval);
+                alpha = Math.max(alpha, eval);
             }
-            else if (s._cName.equals("QUEEN"))
+            else
             {
-                pieces[s._r2][s._c2] = new Queen (s._cWhite);
+                bestEval = Math.min(bestEval, eval);
+                beta = Math.min(beta, eval);
             }
+            if (beta <= alpha)
+                break;
         }
+        return bestEval;
     }
 
-    public double minimax ( int depth, double alpha, double beta, boolean maximizer)
+    // The most material a capture (or promotion) can win
+    private double captureGain(int move)
     {
-        PossibleCoordinates[] possMoves = storePossibleMoves(maximizer);
-        if (depth == 0 || possMoves.length == 0)
+        double gain = 0;
+        if ((move & PASSANT_FLAG) != 0)
+            gain = PIECE_VALUES[Bitboard.PAWN];
+        else if ((move & CAPTURE_FLAG) != 0)
+            gain = PIECE_VALUES[board.typeAt(moveTo(move))];
+
+        int promotion = promotion(move);
+        if (promotion != 0)
+            gain += PIECE_VALUES[promotion] - PIECE_VALUES[Bitboard.PAWN];
+        return gain;
+    }
+
+    // Makes a packed move on the board, saving what's needed to undo it
+    void makeMove(int move)
+    {
+        int from = moveFrom(move);
+        int to = moveTo(move);
+        pushUndo(move);
+        updateBoard(from / 8, from % 8, to / 8, to % 8, promotion(move));
+    }
+
+    // Records the move the root of the search currently thinks is best
+    private void setBestMove(int move)
+    {
+        bestMove.r1 = moveFrom(move) / 8;
+        bestMove.c1 = moveFrom(move) % 8;
+        bestMove.r2 = moveTo(move) / 8;
+        bestMove.c2 = moveTo(move) % 8;
+        bestMove.move = move;
+    }
+
+    /*
+       Looks the position up in the tablebases, with white or black to
+       move. Returns its value as the tablebases store it, or -1 if they
+       don't have it: it has more than Tablebases.MAX_PIECES pieces, a
+       castling right or an En Passant capture, or its ending isn't there.
+    */
+    private int probeTablebases(Tablebases tablebases, boolean isWhite)
+    {
+        if (tablebases == null || Long.bitCount(board.occupied) > Tablebases.MAX_PIECES ||
+                castling != 0)
+            return -1;
+
+        // A pawn that just advanced two squares only matters if a pawn can
+        // take it
+        int colour = (isWhite)? Bitboard.WHITE : Bitboard.BLACK;
+        long passant = passantTarget(isWhite);
+        if (passant != 0 && (board.pieceSet(colour, Bitboard.PAWN) &
+                Bitboard.PAWN_ATTACKS[1 - colour][Long.numberOfTrailingZeros(passant)]) != 0)
+            return -1;
+
+        int n = 0;
+        long pieces = board.occupied;
+        while (pieces != 0)
         {
-            if (possMoves.length == 0)
-                return -10000000;
-            else
-                return evaluatePosition();
+            int sq = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            tablebaseTypes[n] = board.typeAt(sq);
+            tablebaseColours[n] = board.colourAt(sq);
+            tablebaseSquares[n++] = sq;
         }
+        return tablebases.probe(tablebaseTypes, tablebaseColours, tablebaseSquares, n, colour);
+    }
 
-        double bestEval = (maximizer)? -1000000 : 1000000;
-        double eval;
+    // The same, with the side whose turn it is to move
+    int probeTablebases(Tablebases tablebases)
+    {
+        return probeTablebases(tablebases, _isWhiteTurn);
+    }
 
-        if (maximizer)
-        {
-            for (int i = 0; i < possMoves.length; ++i)
-            {
-                addOnStack(possMoves[i]._r1, possMoves[i]._c1, possMoves[i]._r2,
-                        possMoves[i]._c2);
+    // Score of the position from the tablebases, as minimax would score it
+    // ply moves from the root, or NaN if they don't have it
+    private double tablebaseScore(boolean maximizer, int ply)
+    {
+        int value = probeTablebases(tablebases, maximizer);
+        if (value < 0 || value == Tablebases.ILLEGAL)
+            return Double.NaN;
+        ++stats.tablebaseHits;
+        if (value == Tablebases.DRAW)
+            return 0;
+
+        // The side to move mates in an odd number of plies, and is mated
+        // in an even number
+        int plies = value - 1;
+        double score = (plies % 2 == 1)? MATE - (ply + plies) : -(MATE - (ply + plies));
+        return (maximizer)? score : -score;
+    }
 
-                updateBoard(possMoves[i]._r1, possMoves[i]._c1, possMoves[i]._r2,
-                        possMoves[i]._c2);
+    // Mate scores count moves from the root. The table stores them counting
+    // from the stored position instead, so they stay right when the
+    // position is reached at a different ply.
+    private double scoreToTable(double score, int ply)
+    {
+        if (score > MATE_BOUND)
+            return score + ply;
+        else if (score < -MATE_BOUND)
+            return score - ply;
+        return score;
+    }
 
-                eval = minimax ( depth - 1, alpha, beta,  false);
-                bestEval = Math.max(bestEval, eval);
-                undo();
-                alpha = Math.max(alpha, eval);
-                if (beta <= alpha)
-                    break;
-            }
-            return bestEval;
-        }
+    private double scoreFromTable(double score, int ply)
+    {
+        if (score > MATE_BOUND)
+            return score - ply;
+        else if (score < -MATE_BOUND)
+            return score + ply;
+        return score;
+    }
+
+    // Returns true if a move neither captures nor promotes
+    static boolean isQuiet(int move)
+    {
+        return (move & (CAPTURE_FLAG | PROMOTION_MASK)) == 0;
+    }
+
+    // Returns how many positions the last search visited (on this board)
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    // Returns the statistics of the last computerTurn, counting every
+    // thread that searched
+    public SearchStats getSearchStats()
+    {
+        return lastSearch;
+    }
+
+    // Adds this board's counts of the current search to a total
+    private void addStatsTo(SearchStats total)
+    {
+        total.add(stats);
+        total.nodes += nodes;
+        total.cutoffs += ordering.getCutoffs();
+        total.firstMoveCutoffs += ordering.getFirstMoveCutoffs();
+    }
+
+    // Returns the fraction of the last search's cutoffs caused by the first
+    // move tried, a measure of how well moves are ordered
+    public double getFirstMoveCutoffRate()
+    {
+        return ordering.firstMoveCutoffRate();
+    }
+
+    // The following unpack the fields of a packed move
+
+    static int moveFrom(int move)
+    {
+        return move & 0x3F;
+    }
+
+    static int moveTo(int move)
+    {
+        return (move >>> 6) & 0x3F;
+    }
+
+    // The type of piece a move promotes to, or 0 if it isn't a promotion
+    static int promotion(int move)
+    {
+        return (move & PROMOTION_MASK) >>> 12;
+    }
+
+    // Writes a packed move in coordinate notation, like e2e4 or a7a8q
+    static String moveText(int move)
+    {
+        String text = squareText(moveFrom(move)) + squareText(moveTo(move));
+        if (promotion(move) != 0)
+            text += PIECE_CHARS.charAt(Bitboard.BLACK * 6 + promotion(move));
+        return text;
+    }
+
+    /*
+       Writes a legal move of the side to move in standard algebraic
+       notation (SAN), the way EPD and PGN files write them: the piece
+       letter (none for pawns), the column and / or row it moves from if
+       another piece of the same kind could move to the same square, x for
+       a capture, the square, =Q for a promotion, and + for check or # for
+       checkmate. Castling is O-O or O-O-O.
+    */
+    String moveSan(int move)
+    {
+        boolean isWhite = _isWhiteTurn;
+        int from = moveFrom(move);
+        int to = moveTo(move);
+        int type = board.typeAt(from);
+        StringBuilder san = new StringBuilder(8);
+
+        if ((move & CASTLE_FLAG) != 0)
+            san.append((to > from)? "O-O" : "O-O-O");
         else
         {
-            for (int i = 0; i < possMoves.length; ++i)
+            if (type != Bitboard.PAWN)
             {
-                addOnStack(possMoves[i]._r1, possMoves[i]._c1, possMoves[i]._r2,
-                        possMoves[i]._c2);
-
-                updateBoard(possMoves[i]._r1, possMoves[i]._c1, possMoves[i]._r2,
-                        possMoves[i]._c2);
-
-                eval = minimax ( depth - 1, alpha, beta, true);
-                if (depth == DEPTH_MAX)
+                san.append(PIECE_CHARS.charAt(type));
+
+                // Other pieces of the same kind that can reach the square
+                int[] moves = new int[MAX_MOVES];
+                int count = generateMoves(isWhite, false, moves);
+                boolean ambiguous = false;
+                boolean sameColumn = false;
+                boolean sameRow = false;
+                for (int i = 0; i < count; ++i)
                 {
-                    if (eval < bestEval)
+                    int other = moveFrom(moves[i]);
+                    if (moveTo(moves[i]) == to && other != from &&
+                            board.typeAt(other) == type)
                     {
-                        bestMove.r1 = possMoves[i]._r1;
-                        bestMove.c1 = possMoves[i]._c1;
-                        bestMove.r2 = possMoves[i]._r2;
-                        bestMove.c2 = possMoves[i]._c2;
+                        ambiguous = true;
+                        sameColumn |= other % 8 == from % 8;
+                        sameRow |= other / 8 == from / 8;
                     }
                 }
+                if (ambiguous && (!sameColumn || sameRow))
+                    san.append((char) ('a' + from % 8));
+                if (ambiguous && sameColumn)
+                    san.append((char) ('8' - from / 8));
+            }
+            else if ((move & CAPTURE_FLAG) != 0)
+                san.append((char) ('a' + from % 8));
+
+            if ((move & CAPTURE_FLAG) != 0)
+                san.append('x');
+            san.append(squareText(to));
+            if (promotion(move) != 0)
+                san.append('=').append(PIECE_CHARS.charAt(promotion(move)));
+        }
 
-                bestEval = Math.min(bestEval, eval);
+        makeMove(move);
+        if (kingInCheck(!isWhite))
+        {
+            int replies = generateMoves(!isWhite, false, new int[MAX_MOVES]);
+            san.append((replies == 0)? '#' : '+');
+        }
+        undo();
+        return san.toString();
+    }
 
-                undo();
+    // Returns the legal moves of the side to move, packed
+    int[] legalMoves()
+    {
+        int[] moves = new int[MAX_MOVES];
+        int count = generateMoves(_isWhiteTurn, false, moves);
+        return Arrays.copyOf(moves, count);
+    }
 
-                beta = Math.min(beta, eval);
-                if (beta <= alpha)
-                    break;
+    /*
+       Finds the legal move written in standard algebraic notation, as
+       moveSan writes it or with the usual variations: without check marks,
+       0-0 for castling, e8Q for a promotion, or the from square written in
+       full (e2-e4). Returns the packed move, or 0 if no legal move, or more
+       than one, matches. The text is read in place, so nothing is allocated.
+    */
+    int parseSan(CharSequence san)
+    {
+        int end = san.length();
+        while (end > 0 && "+#!?".indexOf(san.charAt(end - 1)) >= 0)
+            --end;
+        if (end < 2)
+            return 0;
+
+        int count = generateMoves(_isWhiteTurn, false, sanMoves);
+
+        // Castling, written with the letter O or the digit 0
+        if (san.charAt(0) == 'O' || san.charAt(0) == '0')
+        {
+            boolean queenSide = end >= 5;
+            for (int i = 0; i < count; ++i)
+            {
+                int move = sanMoves[i];
+                if ((move & CASTLE_FLAG) != 0 && (moveTo(move) < moveFrom(move)) == queenSide)
+                    return move;
             }
-            return bestEval;
+            return 0;
         }
 
+        int type = Bitboard.PAWN;
+        int i = 0;
+        if ("NBRQK".indexOf(san.charAt(0)) >= 0)
+        {
+            type = PIECE_CHARS.indexOf(san.charAt(0));
+            i = 1;
+        }
+
+        // A promotion ends with the piece, after an = or not
+        int promotion = 0;
+        if (type == Bitboard.PAWN && "NBRQ".indexOf(san.charAt(end - 1)) >= 0)
+        {
+            promotion = PIECE_CHARS.indexOf(san.charAt(end - 1));
+            --end;
+            if (end > 0 && san.charAt(end - 1) == '=')
+                --end;
+        }
+        if (end - i < 2)
+            return 0;
+
+        int c2 = san.charAt(end - 2) - 'a';
+        int r2 = '8' - san.charAt(end - 1);
+        if (r2 < 0 || r2 > 7 || c2 < 0 || c2 > 7)
+            return 0;
+        int to = Bitboard.square(r2, c2);
+
+        // Between the piece and the square: the column and/or row the piece
+        // comes from, and x for a capture
+        int c1 = -1;
+        int r1 = -1;
+        for (int j = i; j < end - 2; ++j)
+        {
+            char ch = san.charAt(j);
+            if (ch >= 'a' && ch <= 'h')
+                c1 = ch - 'a';
+            else if (ch >= '1' && ch <= '8')
+                r1 = '8' - ch;
+            else if (ch != 'x' && ch != ':' && ch != '-')
+                return 0;
+        }
+
+        int found = 0;
+        for (int m = 0; m < count; ++m)
+        {
+            int move = sanMoves[m];
+            int from = moveFrom(move);
+            if (moveTo(move) != to || board.typeAt(from) != type || promotion(move) != promotion)
+                continue;
+            if ((c1 >= 0 && from % 8 != c1) || (r1 >= 0 && from / 8 != r1))
+                continue;
+            if (found != 0)
+                return 0;       // Ambiguous
+            found = move;
+        }
+        return found;
+    }
+
+    /*
+       The key of the position in a Polyglot opening book. Polyglot hashes
+       positions with a fixed table of its own (OpeningBook.RANDOM), so book
+       files work in every engine, instead of with the board's Zobrist keys.
+       Its pieces go black pawn, white pawn, black knight, ..., white king,
+       its rows count from white's side, and an En Passant column only
+       counts when a pawn of the side to move could capture there.
+    */
+    long polyglotKey()
+    {
+        long key = 0;
+        for (int sq = 0; sq < 64; ++sq)
+        {
+            int type = board.typeAt(sq);
+            if (type == Bitboard.EMPTY)
+                continue;
+            int kind = type * 2 + ((board.colourAt(sq) == Bitboard.WHITE)? 1 : 0);
+            key ^= OpeningBook.RANDOM[64 * kind + 8 * (7 - sq / 8) + sq % 8];
+        }
+
+        // White short, white long, black short, black long, in both
+        for (int i = 0; i < 4; ++i)
+        {
+            if ((castling & (1 << i)) != 0)
+                key ^= OpeningBook.RANDOM[768 + i];
+        }
+
+        long target = passantTarget(_isWhiteTurn);
+        if (target != 0)
+        {
+            int sq = Long.numberOfTrailingZeros(target);
+            int colour = sideToMove();
+            if ((Bitboard.PAWN_ATTACKS[1 - colour][sq] &
+                    board.pieceSet(colour, Bitboard.PAWN)) != 0)
+                key ^= OpeningBook.RANDOM[772 + sq % 8];
+        }
+
+        if (_isWhiteTurn)
+            key ^= OpeningBook.RANDOM[780];
+        return key;
+    }
+
+    // Plays a packed move for the side to move, and passes the turn
+    void playMove(int move)
+    {
+        makeMove(move);
+        switchTurn();
+    }
+
+    // Writes a square as its column letter and rank number, like e4
+    static String squareText(int sq)
+    {
+        return "" + (char) ('a' + sq % 8) + (char) ('8' - sq / 8);
     }
 
     public void displayBoard()
     {
+        String symbols = "PNBRQK";
         System.out.println();
         for (int r = 0; r < 8; ++r)
         {
             for (int c = 0; c < 8; ++c)
             {
-                if (pieces[r][c] == null)
-                {
+                int type = board.typeAt(Bitboard.square(r, c));
+                if (type == Bitboard.EMPTY)
                     System.out.print("- ");
-                }
-                else if (pieces[r][c] instanceof Pawn)
-                {
-                    System.out.print("P ");
-                }
-                else if (pieces[r][c] instanceof Rook)
-                {
-                    System.out.print("R ");
-                }
-                else if (pieces[r][c] instanceof Knight)
-                {
-                    System.out.print("N ");
-                }
-                else if (pieces[r][c] instanceof Bishop)
-                {
-                    System.out.print("B ");
-                }
-                else if (pieces[r][c] instanceof Queen)
-                {
-                    System.out.print("Q ");
-                }
                 else
-                    System.out.print("K ");
-
+                    System.out.print(symbols.charAt(type) + " ");
             }
             System.out.println();
         }
         System.out.println();
     }
 
+    // Returns the piece on a square, for the GUI, or null if it's empty
+    public Piece getPiece(int r, int c)
+    {
+        return Piece.of(board.pieceAt(Bitboard.square(r, c)));
+    }
+
     public int getNumPieces()
     {
-        int numPieces = 0;
-        for (int r = 0; r < 8; ++r)
-        {
-            for (int c = 0; c < 8; ++c)
-            {
-                if (pieces[r][c] != null)
-                    ++numPieces;
-            }
-        }
-        return numPieces;
+        return Long.bitCount(board.occupied);
     }
 }
 
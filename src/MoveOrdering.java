@@ -0,0 +1,177 @@
+/*
+   Briggs Richardson
+
+   The MoveOrdering decides the order minimax tries the moves of a position
+   in. Alpha-beta pruning cuts off the most when the best move is searched
+   first, so the moves most likely to be best go first:
+
+      1) The hash move, the best move found the last time the position was
+         searched (stored in the transposition table)
+      2) Captures, most valuable victim first, and for the same victim the
+         least valuable attacker first (MVV-LVA). Promotions go with them.
+      3) Killer moves, quiet moves that caused a cutoff at the same ply in
+         a neighbouring position
+      4) All other quiet moves, by their history score: how often (and how
+         deep in the tree) a move between the same two squares caused a
+         cutoff anywhere in the search
+
+   It also counts cutoffs, and how many of them came from the first move
+   tried. The closer that rate is to 1, the better the ordering.
+*/
+
+public class MoveOrdering
+{
+    private static final int HASH_SCORE = 1000000;
+    private static final int CAPTURE_SCORE = 100000;
+    private static final int KILLER_SCORE = 90000;
+    private static final int HISTORY_MAX = KILLER_SCORE - 1;
+    static final int MAX_PLY = 128; // Deepest ply, quiescence included
+
+    // MVV_LVA[victim][attacker], indexed by Bitboard piece type
+    private static final int[][] MVV_LVA = new int[6][6];
+
+    private int[][] killers;   // Two killer moves per ply (packed moves)
+    private int[][][] history; // [colour][from][to]
+    private int[][] scores;    // Scores of the moves at each ply
+
+    private long cutoffs;
+    private long firstMoveCutoffs;
+
+    static
+    {
+        for (int victim = 0; victim < 6; ++victim)
+        {
+            for (int attacker = 0; attacker < 6; ++attacker)
+                MVV_LVA[victim][attacker] = (victim + 1) * 10 - attacker;
+        }
+    }
+
+    public MoveOrdering()
+    {
+        killers = new int[MAX_PLY][2];
+        history = new int[2][64][64];
+        scores = new int[MAX_PLY][256];
+    }
+
+    // Called before each search. Killers are forgotten, and history is
+    // halved so that old cutoffs count less than new ones.
+    public void newSearch()
+    {
+        for (int ply = 0; ply < MAX_PLY; ++ply)
+        {
+            killers[ply][0] = -1;
+            killers[ply][1] = -1;
+        }
+        ageHistory(Bitboard.WHITE);
+        ageHistory(Bitboard.BLACK);
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+    }
+
+    // Gives every (packed) move of the position at this ply its ordering score
+    public void scoreMoves(Bitboard board, int[] moves, int count,
+                           int hashMove, int ply)
+    {
+        int[] plyScores = scores[ply];
+        for (int i = 0; i < count; ++i)
+        {
+            int move = moves[i];
+            int from = LogicBoard.moveFrom(move);
+            int to = LogicBoard.moveTo(move);
+
+            if ((move & LogicBoard.MOVE_ID) == hashMove)
+                plyScores[i] = HASH_SCORE;
+            else if (LogicBoard.promotion(move) != 0 &&
+                    LogicBoard.promotion(move) != Bitboard.QUEEN)
+                plyScores[i] = -1; // Underpromotions go last
+            else if ((move & LogicBoard.PASSANT_FLAG) != 0)
+                plyScores[i] = CAPTURE_SCORE + MVV_LVA[Bitboard.PAWN][Bitboard.PAWN];
+            else if ((move & LogicBoard.CAPTURE_FLAG) != 0)
+                plyScores[i] = CAPTURE_SCORE + MVV_LVA[board.typeAt(to)][board.typeAt(from)];
+            else if (LogicBoard.promotion(move) != 0)
+                plyScores[i] = CAPTURE_SCORE + MVV_LVA[LogicBoard.promotion(move)][Bitboard.PAWN];
+            else if (move == killers[ply][0])
+                plyScores[i] = KILLER_SCORE + 1;
+            else if (move == killers[ply][1])
+                plyScores[i] = KILLER_SCORE;
+            else
+                plyScores[i] = history[board.colourAt(from)][from][to];
+        }
+    }
+
+    // Moves the best scored of the moves not yet tried into position i.
+    // Picking one at a time is cheaper than sorting, since a cutoff often
+    // comes before most of the moves are tried.
+    public void pickMove(int[] moves, int count, int i, int ply)
+    {
+        int[] plyScores = scores[ply];
+        int best = i;
+        for (int j = i + 1; j < count; ++j)
+        {
+            if (plyScores[j] > plyScores[best])
+                best = j;
+        }
+        if (best != i)
+        {
+            int tempMove = moves[i];
+            moves[i] = moves[best];
+            moves[best] = tempMove;
+            int tempScore = plyScores[i];
+            plyScores[i] = plyScores[best];
+            plyScores[best] = tempScore;
+        }
+    }
+
+    // Records that the move tried i-th caused a cutoff. A quiet move becomes
+    // a killer of the ply, and its history score grows by depth squared.
+    public void cutoff(int move, int colour, int depth, int ply, int i)
+    {
+        ++cutoffs;
+        if (i == 0)
+            ++firstMoveCutoffs;
+
+        if (!LogicBoard.isQuiet(move))
+            return;
+
+        if (killers[ply][0] != move)
+        {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+
+        int from = LogicBoard.moveFrom(move);
+        int to = LogicBoard.moveTo(move);
+        history[colour][from][to] += depth * depth;
+        if (history[colour][from][to] > HISTORY_MAX)
+            ageHistory(colour);
+    }
+
+    // Cutoffs of the last search, and how many came from the first move
+    public long getCutoffs()
+    {
+        return cutoffs;
+    }
+
+    public long getFirstMoveCutoffs()
+    {
+        return firstMoveCutoffs;
+    }
+
+    // Fraction of the cutoffs of the last search that came from the first
+    // move tried
+    public double firstMoveCutoffRate()
+    {
+        if (cutoffs == 0)
+            return 0;
+        return (double) firstMoveCutoffs / cutoffs;
+    }
+
+    private void ageHistory(int colour)
+    {
+        for (int from = 0; from < 64; ++from)
+        {
+            for (int to = 0; to < 64; ++to)
+                history[colour][from][to] /= 2;
+        }
+    }
+}
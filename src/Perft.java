@@ -0,0 +1,250 @@
+/*
+   Briggs Richardson
+
+   Perft counts the positions that can be reached from a position in a
+   fixed number of moves (plies). The counts of a few well known positions
+   are published, and between them they cover castling, En Passant,
+   promotions, checks and pins, so comparing against them checks the move
+   generator. It also measures how fast generating, making and undoing
+   moves is, in nodes (counted positions) per second.
+
+   - divide prints the count below each move of the position, to narrow
+     down which move a wrong count comes from.
+   - threads N counts the moves of the position on N threads, each move
+     on its own copy of the board.
+   - hash MB keeps the count of each subtree in a table of that size, so a
+     position reached by different move orders is only counted once.
+
+   With no FEN, the standard positions are counted to their test depths and
+   compared with the published counts.
+
+   Usage: java Perft ["fen" depth] [divide] [threads N] [hash MB]
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Perft
+{
+    // The standard positions, their published counts at depth 1, 2, ...
+    // and the depth each is tested to
+    private static final String[] NAMES =
+            {"start", "kiwipete", "position 3", "position 4", "position 5", "position 6"};
+    private static final String[] FENS =
+            {
+                    "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+                    "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+                    "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+                    "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+                    "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+                    "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+            };
+    private static final long[][] COUNTS =
+            {
+                    {20, 400, 8902, 197281, 4865609, 119060324},
+                    {48, 2039, 97862, 4085603, 193690690},
+                    {14, 191, 2812, 43238, 674624, 11030083},
+                    {6, 264, 9467, 422333, 15833292},
+                    {44, 1486, 62379, 2103487, 89941194},
+                    {46, 2079, 89890, 3894594, 164075551}
+            };
+    private static final int[] TEST_DEPTHS = {5, 4, 5, 4, 4, 4};
+
+    private static final int MAX_DEPTH = 64;
+
+    private final LogicBoard logic;
+    private final PerftTable table; // null when not hashing
+    private final int[][] buffers = new int[MAX_DEPTH][LogicBoard.MAX_MOVES];
+
+    public Perft(LogicBoard logic, PerftTable table)
+    {
+        this.logic = logic;
+        this.table = table;
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        String fen = null;
+        int depth = 0;
+        boolean divide = false;
+        int threads = 1;
+        int megabytes = 0;
+        for (int i = 0; i < args.length; ++i)
+        {
+            if (args[i].equals("divide"))
+                divide = true;
+            else if (args[i].equals("threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("hash") && i + 1 < args.length)
+                megabytes = Integer.parseInt(args[++i]);
+            else if (fen == null)
+                fen = args[i];
+            else
+                depth = Integer.parseInt(args[i]);
+        }
+
+        if (fen == null)
+        {
+            boolean passed = true;
+            System.out.println("position        depth        nodes    time (ms)      Mnps");
+            for (int i = 0; i < FENS.length; ++i)
+            {
+                int d = TEST_DEPTHS[i];
+                PerftTable table = (megabytes > 0)? new PerftTable(megabytes) : null;
+                long start = System.nanoTime();
+                long nodes = run(FENS[i], d, false, threads, table);
+                long time = System.nanoTime() - start;
+
+                boolean correct = nodes == COUNTS[i][d - 1];
+                passed &= correct;
+                System.out.printf("%-12s %8d %12d %12d %9.2f  %s%n", NAMES[i], d, nodes,
+                        time / 1000000, nodes * 1000.0 / time,
+                        (correct)? "ok" : "expected " + COUNTS[i][d - 1]);
+            }
+            if (!passed)
+                System.exit(1);
+        }
+        else
+        {
+            PerftTable table = (megabytes > 0)? new PerftTable(megabytes) : null;
+            long start = System.nanoTime();
+            long nodes = run(fen, depth, divide, threads, table);
+            long time = System.nanoTime() - start;
+            System.out.printf("Depth %d: %d nodes in %d ms (%.2f Mnps)%n", depth, nodes,
+                    time / 1000000, nodes * 1000.0 / time);
+        }
+    }
+
+    // Counts the nodes of a FEN position to the depth, splitting the moves
+    // of the position over the threads
+    public static long run(String fen, int depth, boolean divide, int threads,
+                           PerftTable table) throws InterruptedException
+    {
+        LogicBoard logic = new LogicBoard();
+        logic.setPosition(fen);
+        if (depth < 1)
+            return 1;
+
+        boolean isWhite = logic.getIsWhiteTurn();
+        int[] moves = new int[LogicBoard.MAX_MOVES];
+        int count = logic.generateMoves(isWhite, false, moves);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> counts = new ArrayList<Future<Long>>();
+        for (int i = 0; i < count; ++i)
+        {
+            LogicBoard child = logic.copy();
+            child.makeMove(moves[i]);
+            counts.add(pool.submit(() -> new Perft(child, table).count(depth - 1, !isWhite)));
+        }
+        pool.shutdown();
+
+        long nodes = 0;
+        try
+        {
+            for (int i = 0; i < count; ++i)
+            {
+                long n = counts.get(i).get();
+                if (divide)
+                    System.out.println(LogicBoard.moveText(moves[i]) + ": " + n);
+                nodes += n;
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        return nodes;
+    }
+
+    // Counts the nodes below this position to the depth, with the given
+    // side to move
+    public long count(int depth, boolean isWhite)
+    {
+        if (depth < 1)
+            return 1;
+        return count(depth, isWhite, 0);
+    }
+
+    private long count(int depth, boolean isWhite, int ply)
+    {
+        long key = 0;
+        if (table != null && depth > 1)
+        {
+            key = logic.positionKey(isWhite);
+            long cached = table.probe(key, depth);
+            if (cached >= 0)
+                return cached;
+        }
+
+        int[] moves = buffers[ply];
+        int count = logic.generateMoves(isWhite, false, moves);
+
+        // The generator only makes legal moves, so the last ply needn't
+        // be made, just counted
+        if (depth == 1)
+            return count;
+
+        long nodes = 0;
+        for (int i = 0; i < count; ++i)
+        {
+            logic.makeMove(moves[i]);
+            nodes += count(depth - 1, !isWhite, ply + 1);
+            logic.undo();
+        }
+
+        if (table != null)
+            table.store(key, depth, nodes);
+        return nodes;
+    }
+}
+
+/*
+   A table of subtree counts, indexed by the Zobrist key of the position
+   (side to move included) mixed with the depth. Each entry is replaced by
+   the newest count. The threads share it without locking: an entry's key
+   is stored XORed with its count, so an entry half written by one thread
+   while another reads it doesn't match, and counts as a miss.
+*/
+class PerftTable
+{
+    private final long[] checks; // Key of the entry, XORed with its count
+    private final long[] counts;
+    private final int mask;
+
+    public PerftTable(int megabytes)
+    {
+        long entries = Long.highestOneBit(Math.max(1L, megabytes * (1L << 20) / 16));
+        entries = Math.min(entries, 1L << 30);
+        checks = new long[(int) entries];
+        counts = new long[(int) entries];
+        mask = (int) entries - 1;
+    }
+
+    // Returns the count of a position at a depth, or -1 if it isn't stored
+    public long probe(long key, int depth)
+    {
+        long k = entryKey(key, depth);
+        int i = (int) k & mask;
+        long count = counts[i];
+        return ((checks[i] ^ count) == k)? count : -1;
+    }
+
+    public void store(long key, int depth, long count)
+    {
+        long k = entryKey(key, depth);
+        int i = (int) k & mask;
+        counts[i] = count;
+        checks[i] = k ^ count;
+    }
+
+    // The same position at different depths has different entries
+    private static long entryKey(long key, int depth)
+    {
+        return key ^ (depth * 0x9E3779B97F4A7C15L);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+   Briggs Richardson
+
+   The PgnGame class holds one game read from a PGN file by PgnReader: its
+   tags (Event, White, Result, ...), its moves, packed the way LogicBoard
+   packs them, and the result written after the moves.
+
+   A reader fills the same PgnGame with game after game, reusing its move
+   array, so reading a whole archive keeps no more than one game in memory.
+   Anything that must outlive the next game should be copied out.
+*/
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PgnGame
+{
+    private static final String START_FEN =
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final int ALLOC = 256;
+
+    long offset;                // Where the game starts in the file
+    Map<String, String> tags = new HashMap<String, String>();
+    int[] moves = new int[ALLOC];
+    int moveCount;
+    String result;              // 1-0, 0-1, 1/2-1/2 or *, or null if missing
+    String error;               // Why the moves end early, or null
+
+    // Empties the game, for the next one read
+    void reset(long offset)
+    {
+        this.offset = offset;
+        tags.clear();
+        moveCount = 0;
+        result = null;
+        error = null;
+    }
+
+    void addMove(int move)
+    {
+        if (moveCount == moves.length)
+            moves = Arrays.copyOf(moves, moves.length * 2);
+        moves[moveCount++] = move;
+    }
+
+    // Byte offset of the start of the game in its file
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    // Value of a tag, or null if the game doesn't have it
+    public String getTag(String name)
+    {
+        return tags.get(name);
+    }
+
+    public Map<String, String> getTags()
+    {
+        return tags;
+    }
+
+    // The position the game starts from: its FEN tag, or the usual start
+    public String getStartFen()
+    {
+        String fen = tags.get("FEN");
+        return (fen == null)? START_FEN : fen;
+    }
+
+    // Number of moves (plies) read
+    public int getMoveCount()
+    {
+        return moveCount;
+    }
+
+    // A move of the game, packed (see LogicBoard)
+    int getMove(int ply)
+    {
+        return moves[ply];
+    }
+
+    // A move of the game in coordinate notation, like e2e4 or a7a8q
+    public String getMoveText(int ply)
+    {
+        return LogicBoard.moveText(moves[ply]);
+    }
+
+    public String getResult()
+    {
+        return result;
+    }
+
+    // Why the moves end before the game does (a move that isn't legal, or
+    // can't be read), or null if every move was read
+    public String getError()
+    {
+        return error;
+    }
+
+    // Sets a board to the position after the given number of plies
+    public void replay(LogicBoard logic, int plies)
+    {
+        logic.setPosition(getStartFen());
+        for (int i = 0; i < plies && i < moveCount; ++i)
+            logic.playMove(moves[i]);
+    }
+}
@@ -0,0 +1,603 @@
+/*
+   Briggs Richardson
+
+   PgnReader reads the games of a PGN file one at a time, however large the
+   file is. The file is mapped into memory a window at a time (WINDOW
+   bytes), and read in place: tags and moves are picked out of the mapped
+   bytes, and each move (in standard algebraic notation) is found among the
+   legal moves of a LogicBoard, which plays it. Comments, variations,
+   annotation glyphs and move numbers are skipped. Only the game being read
+   has to fit in a window.
+
+   split divides a file into parts that start at the start of a game, so
+   several readers (one per thread) can read one file in parallel, each
+   over a part. A reader reads every game that starts in its part.
+
+   A game starts with its first tag: a line starting with [, that doesn't
+   follow another tag line. split is stricter, since a part may start in
+   the middle of a comment, where a wrapped line can start with [ too (like
+   [%clk 0:01:04] } Rxb3): it only starts a part at a whole tag line,
+   [Name "Value"], after a blank line.
+
+   Usage: java PgnReader <file> [threads <n>]
+   It reads every game, and prints how many it read, how many of their
+   moves weren't legal, and how fast it read them.
+
+   java PgnReader test checks split and the reader on a file of games with
+   clock comments wrapped onto lines starting with [, and prints ok or
+   FAILED for each check.
+*/
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class PgnReader implements Closeable
+{
+    private static final int WINDOW = 64 << 20; // Bytes mapped at a time
+    private static final int MAX_LINE = 4096;   // Longest tag line split looks for
+    private static final String[] RESULTS = {"1-0", "0-1", "1/2-1/2", "*"};
+
+    private final FileChannel channel;
+    private final long size;    // Size of the file
+    private final long end;     // Games starting at or after this are left out
+
+    private MappedByteBuffer window;
+    private long windowStart;   // Offset in the file of the window's first byte
+    private int limit;          // Bytes in the window
+    private int i;              // Next byte to read, in the window
+
+    private final LogicBoard logic = new LogicBoard();
+    private final AsciiChars token = new AsciiChars();
+
+    // Reads every game of a file
+    public PgnReader(Path file) throws IOException
+    {
+        this(file, 0, Long.MAX_VALUE);
+    }
+
+    // Reads the games of a file that start from start up to end (such as a
+    // part returned by split)
+    public PgnReader(Path file, long start, long end) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        this.end = Math.min(end, size);
+        map(Math.min(start, size));
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java PgnReader <file> [threads <n>] | test");
+            return;
+        }
+        if (args[0].equals("test"))
+        {
+            if (!test())
+                System.exit(1);
+            return;
+        }
+        final Path file = Paths.get(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length == 3 && args[1].equals("threads"))
+            threads = Integer.parseInt(args[2]);
+
+        final AtomicLong games = new AtomicLong();
+        final AtomicLong plies = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long[] parts = split(file, threads);
+
+        long start = System.nanoTime();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t)
+        {
+            final int part = t;
+            workers[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    PgnGame game = new PgnGame();
+                    try (PgnReader reader = new PgnReader(file, parts[part], parts[part + 1]))
+                    {
+                        while (reader.next(game))
+                        {
+                            games.incrementAndGet();
+                            plies.addAndGet(game.getMoveCount());
+                            if (game.getError() != null)
+                            {
+                                errors.incrementAndGet();
+                                System.out.println("Game at byte " + game.getOffset() + ": " +
+                                        game.getError());
+                            }
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        System.out.println("Part " + part + ": " + e.getMessage());
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (int t = 0; t < threads; ++t)
+            workers[t].join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long bytes = parts[threads];
+        System.out.printf("%d games, %d moves, %d games with a bad move%n", games.get(),
+                plies.get(), errors.get());
+        System.out.printf("%.2f s, %.0f games/s, %.1f MB/s (%d threads)%n", seconds,
+                games.get() / seconds, bytes / seconds / (1 << 20), threads);
+    }
+
+    /*
+       Writes a file of games whose comments wrap the way online sites
+       export them, so that lines inside comments start with [ (one also
+       has a } outside any comment), and checks that:
+       - looking for a game from any offset of the file (even inside a
+         comment) only ever finds the start of a game
+       - read in any number of parts from 1 to 8, every game and move is
+         read once, with no bad moves
+       Returns true if every check passes.
+    */
+    private static boolean test() throws IOException
+    {
+        final int games = 40;
+        final int plies = 6;
+        StringBuilder pgn = new StringBuilder();
+        List<Long> starts = new ArrayList<Long>();
+        for (int g = 0; g < games; ++g)
+        {
+            starts.add((long) pgn.length());
+            pgn.append("[Event \"Test\"]\n[Round \"").append(g + 1).append("\"]\n");
+            pgn.append("[Result \"1-0\"]\n\n");
+            pgn.append("1. e4 { A long comment, wrapped where it crossed the line length,\n");
+            pgn.append("[%clk 0:01:04] } e5 2. Nf3 { Another one, with a blank line\n\n");
+            pgn.append("[%clk 0:00:59] } Nc6 3. Bb5 ");
+            pgn.append((g == games / 2)? "} " : "");
+            pgn.append("a6 1-0\n\n");
+        }
+        Path file = Files.createTempFile("pgnreader", ".pgn");
+        file.toFile().deleteOnExit();
+        Files.write(file, pgn.toString().getBytes(StandardCharsets.US_ASCII));
+        long size = pgn.length();
+
+        boolean passed = true;
+        long wrong = 0;
+        try (PgnReader reader = new PgnReader(file))
+        {
+            for (long offset = 1; offset < size; ++offset)
+            {
+                long found = reader.findGame(offset);
+                if (found < offset || (found != size && !starts.contains(found)))
+                    ++wrong;
+            }
+        }
+        System.out.println("split at every offset: " + ((wrong == 0)? "ok" : "FAILED (" + wrong +
+                " offsets found no game start)"));
+        passed &= wrong == 0;
+
+        for (int parts = 1; parts <= 8; ++parts)
+        {
+            long[] offsets = split(file, parts);
+            long read = 0;
+            long moves = 0;
+            long errors = 0;
+            PgnGame game = new PgnGame();
+            for (int k = 0; k < parts; ++k)
+            {
+                try (PgnReader reader = new PgnReader(file, offsets[k], offsets[k + 1]))
+                {
+                    while (reader.next(game))
+                    {
+                        ++read;
+                        moves += game.getMoveCount();
+                        if (game.getError() != null)
+                            ++errors;
+                    }
+                }
+            }
+            boolean ok = read == games && moves == (long) games * plies && errors == 0;
+            System.out.printf("%d parts: %d games, %d moves, %d bad: %s%n", parts, read, moves,
+                    errors, (ok)? "ok" : "FAILED");
+            passed &= ok;
+        }
+        return passed;
+    }
+
+    /*
+       Divides a file into parts for parallel reading. Returns parts + 1
+       offsets: part k is from offsets[k] to offsets[k + 1], and each
+       offset is the start of a game (or the end of the file). Parts may be
+       empty when a file has few games.
+    */
+    public static long[] split(Path file, int parts) throws IOException
+    {
+        long[] offsets = new long[parts + 1];
+        try (PgnReader reader = new PgnReader(file))
+        {
+            offsets[parts] = reader.size;
+            for (int k = 1; k < parts; ++k)
+            {
+                long guess = Math.max(offsets[k - 1], reader.size / parts * k);
+                offsets[k] = reader.findGame(guess);
+            }
+        }
+        return offsets;
+    }
+
+    /*
+       Reads the next game into the given PgnGame, and returns true, or
+       returns false when there are no more. Moves are read until the result
+       or the next game. If a move can't be found among the legal moves,
+       the game's error says so, and the rest of its moves are skipped.
+    */
+    public boolean next(PgnGame game) throws IOException
+    {
+        while (true)
+        {
+            skipToTag();
+            long gameStart = windowStart + i;
+            if (i == limit || gameStart >= end)
+                return false;
+
+            game.reset(gameStart);
+            if (readGame(game))
+                return true;
+
+            // The game goes past the end of the window: map the window
+            // from its start, and read it again
+            if (windowStart == gameStart)
+                throw new IOException("Game at byte " + gameStart + " is longer than " +
+                        WINDOW + " bytes");
+            map(gameStart);
+        }
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    // Maps the window to start at an offset of the file
+    private void map(long offset) throws IOException
+    {
+        windowStart = offset;
+        limit = (int) Math.min(WINDOW, size - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, limit);
+        i = 0;
+    }
+
+    // True if the window ends before the file does, so reading past it
+    // needs another window
+    private boolean cutShort()
+    {
+        return windowStart + limit < size;
+    }
+
+    // Skips what's before the next game's first tag, such as blank lines
+    private void skipToTag() throws IOException
+    {
+        while (true)
+        {
+            while (i < limit && window.get(i) != '[')
+                ++i;
+            if (i < limit || !cutShort())
+                return;
+            map(windowStart + limit);
+        }
+    }
+
+    // Returns the offset of the first game that starts at or after an
+    // offset, or the size of the file if none does
+    private long findGame(long offset) throws IOException
+    {
+        map(offset);
+
+        // The line the offset is in can't be told to be blank, so the line
+        // after it can't be taken to start a game
+        boolean afterBlank = false;
+        while (true)
+        {
+            // On to the end of the line
+            while (i < limit && window.get(i) != '\n')
+                ++i;
+            if (i == limit)
+            {
+                if (!cutShort())
+                    return size;
+                map(windowStart + limit);
+                continue;
+            }
+            ++i;
+
+            // Keep the whole of the next line in the window
+            if (cutShort() && limit - i < MAX_LINE)
+                map(windowStart + i);
+            if (i == limit)
+                return size;
+
+            if (afterBlank && isTagLine(i))
+                return windowStart + i;
+            afterBlank = isBlankLine(i);
+        }
+    }
+
+    // True if the line starting at an index of the window holds nothing
+    // but spaces
+    private boolean isBlankLine(int at)
+    {
+        while (at < limit && window.get(at) != '\n')
+        {
+            if (window.get(at++) > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    // True if the line starting at an index of the window is a whole tag,
+    // [Name "Value"], and nothing else
+    private boolean isTagLine(int at)
+    {
+        if (at == limit || window.get(at++) != '[')
+            return false;
+        int nameStart = at;
+        while (at < limit && isNameChar(window.get(at)))
+            ++at;
+        if (at == nameStart || window.get(nameStart) < 'A')
+            return false;   // No name, or one starting with a digit
+        while (at < limit && window.get(at) == ' ')
+            ++at;
+        if (at == limit || window.get(at++) != '"')
+            return false;
+        while (at < limit && window.get(at) != '"')
+        {
+            if (window.get(at) == '\n')
+                return false;
+            at += (window.get(at) == '\\')? 2 : 1;
+        }
+        if (at >= limit)
+            return false;
+        ++at;
+        while (at < limit && window.get(at) == ' ')
+            ++at;
+        if (at == limit || window.get(at++) != ']')
+            return false;
+        while (at < limit && window.get(at) != '\n')
+        {
+            if (window.get(at++) > ' ')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isNameChar(byte b)
+    {
+        return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') ||
+                b == '_';
+    }
+
+    // Reads the game starting at i. Returns false if it runs past the end
+    // of the window before the game ends.
+    private boolean readGame(PgnGame game)
+    {
+        int fenStart = -1;
+        int fenEnd = -1;
+
+        // The tags, one [Name "Value"] a line
+        while (true)
+        {
+            skipSpace();
+            if (i == limit || window.get(i) != '[')
+                break;
+            int nameStart = ++i;
+            while (i < limit && window.get(i) > ' ' && window.get(i) != ']')
+                ++i;
+            int nameEnd = i;
+            while (i < limit && window.get(i) != '"' && window.get(i) != ']')
+                ++i;
+            int valueStart = -1;
+            int valueEnd = -1;
+            if (i < limit && window.get(i) == '"')
+            {
+                valueStart = ++i;
+                while (i < limit && window.get(i) != '"')
+                    i += (window.get(i) == '\\')? 2 : 1;
+                valueEnd = Math.min(i, limit);
+            }
+            while (i < limit && window.get(i) != ']' && window.get(i) != '\n')
+                ++i;
+            if (i >= limit)
+                return !cutShort();
+            ++i;
+
+            if (valueStart >= 0)
+            {
+                String name = text(nameStart, nameEnd);
+                game.tags.put(name, value(valueStart, valueEnd));
+                if (name.equals("FEN"))
+                {
+                    fenStart = valueStart;
+                    fenEnd = valueEnd;
+                }
+            }
+        }
+
+        try
+        {
+            if (fenStart >= 0)
+                logic.setPosition(window, fenStart, fenEnd);
+            else
+                logic.setPosition(game.getStartFen());
+        }
+        catch (IllegalArgumentException e)
+        {
+            game.error = "bad FEN: " + e.getMessage();
+        }
+
+        // The moves, up to the result or the next game's tags
+        while (true)
+        {
+            skipSpace();
+            if (i == limit)
+                return !cutShort();
+
+            int before = i;
+            byte b = window.get(i);
+            if (b == '[' && atLineStart(i))
+                return true;
+            if (b == '{')
+            {
+                while (i < limit && window.get(i) != '}')
+                    ++i;
+                ++i;
+            }
+            else if (b == ';' || (b == '%' && atLineStart(i)))
+            {
+                while (i < limit && window.get(i) != '\n')
+                    ++i;
+            }
+            else if (b == '(')
+                skipVariation();
+            else if (b == '$')
+            {
+                ++i;
+                while (i < limit && window.get(i) >= '0' && window.get(i) <= '9')
+                    ++i;
+            }
+            else if (b == ')' || b == '}' || b == '[' || b == ']')
+                ++i;    // Unmatched, or a [ that doesn't start a line
+            else
+            {
+                int start = i;
+                while (i < limit && !endsToken(window.get(i)))
+                    ++i;
+                if (i == limit && cutShort())
+                    return false;
+                if (token(game, start, i))
+                    return true;
+            }
+            if (i == before)
+                ++i;    // Whatever the byte was, never read it twice
+            if (i > limit)
+                return !cutShort();
+        }
+    }
+
+    // Deals with a token of the moves: a move number, a move or the result.
+    // Returns true if it's the result.
+    private boolean token(PgnGame game, int start, int end)
+    {
+        token.set(window, start, end);
+        String result = resultOf(token);
+        if (result != null)
+        {
+            game.result = result;
+            return true;
+        }
+
+        // A move number, like 12. or 12..., maybe joined to the move
+        int digits = start;
+        while (digits < end && window.get(digits) >= '0' && window.get(digits) <= '9')
+            ++digits;
+        if (digits > start && digits < end && window.get(digits) == '.')
+        {
+            while (digits < end && window.get(digits) == '.')
+                ++digits;
+            if (digits == end)
+                return false;
+            token.set(window, start = digits, end);
+        }
+
+        if (game.error != null)
+            return false;
+        int move = logic.parseSan(token);
+        if (move == 0)
+        {
+            game.error = "no legal move " + token + " at ply " + (game.moveCount + 1);
+            return false;
+        }
+        game.addMove(move);
+        logic.playMove(move);
+        return false;
+    }
+
+    // Skips a variation, (...), which may hold variations and comments
+    private void skipVariation()
+    {
+        int depth = 0;
+        while (i < limit)
+        {
+            byte b = window.get(i++);
+            if (b == '(')
+                ++depth;
+            else if (b == ')' && --depth == 0)
+                return;
+            else if (b == '{')
+            {
+                while (i < limit && window.get(i) != '}')
+                    ++i;
+                ++i;
+            }
+        }
+    }
+
+    private void skipSpace()
+    {
+        while (i < limit && window.get(i) <= ' ')
+            ++i;
+    }
+
+    private boolean atLineStart(int at)
+    {
+        return at == 0 || window.get(at - 1) == '\n' || window.get(at - 1) == '\r';
+    }
+
+    private static boolean endsToken(byte b)
+    {
+        return b <= ' ' || b == '{' || b == '}' || b == '(' || b == ')' || b == ';' ||
+                b == '$' || b == '[' || b == ']';
+    }
+
+    private static String resultOf(CharSequence token)
+    {
+        for (int r = 0; r < RESULTS.length; ++r)
+        {
+            if (RESULTS[r].contentEquals(token))
+                return RESULTS[r];
+        }
+        return null;
+    }
+
+    // Bytes start to end of the window as a String
+    private String text(int start, int end)
+    {
+        token.set(window, start, end);
+        return token.toString();
+    }
+
+    // A tag's value, with its escapes (\" and \\) undone
+    private String value(int start, int end)
+    {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int j = start; j < end; ++j)
+        {
+            char ch = (char) (window.get(j) & 0xFF);
+            if (ch == '\\' && j + 1 < end)
+                ch = (char) (window.get(++j) & 0xFF);
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+}
@@ -1,31 +1,52 @@
 /*
    Briggs Richardson
    
-   The Super Class of all chess pieces on the pieces[][] array.
-   It contains methods that the sub-class specific pieces will 
-   have for information retreival for the LogicBoard to determine
-   legal moves.
-   
-   Two abstract methods: get_isWhite, canMove are used by every
-   piece, whereas get_hasMoved() and moved() are used only in the
-   Rook, King, and Pawn classes: Since they are the only pieces that
-   the status of having moved or not matters (castling, pawn advance 2)
-   
+   The Super Class of all chess pieces. The LogicBoard stores pieces as
+   byte codes (colour * 6 + type, see Bitboard), and these classes are a
+   view of a code for the GUI: LogicBoard.getPiece returns the Piece on a
+   square. There is one shared, unchanging instance per code, looked up
+   in a table by Piece.of. Whether a king or rook has moved (castling) is
+   kept by the board as its castling rights, not by the pieces.
+
    Below Piece are each individual specific piece, with their properties,
-   and most importantly a function that tells the logic board if a move
-   is POSSIBLE by a given piece (regardless of other rules of the board),
-   like a Pawn CAN move forwards, but it can't move backwards... etc.
+   and most importantly a function that tells if a move is POSSIBLE by a
+   given piece (regardless of other rules of the board), like a Pawn CAN
+   move forwards, but it can't move backwards... etc.
 */
 
 abstract public class Piece
 {
-    protected boolean _isWhite;
+    protected final boolean _isWhite;
+
+    // The piece of every code, indexed by colour * 6 + type
+    private static final Piece[] PIECES =
+            {
+                    new Pawn(true), new Knight(true), new Bishop(true),
+                    new Rook(true), new Queen(true), new King(true),
+                    new Pawn(false), new Knight(false), new Bishop(false),
+                    new Rook(false), new Queen(false), new King(false)
+            };
 
     public Piece(boolean isWhite)
     {
         _isWhite = isWhite;
     }
 
+    // Returns the piece of a code, or null for an empty square (-1)
+    public static Piece of(int code)
+    {
+        return (code < 0)? null : PIECES[code];
+    }
+
+    // Returns the piece's Bitboard type
+    abstract int getType();
+
+    // Returns the piece's code, colour * 6 + type
+    public int getCode()
+    {
+        return ((_isWhite)? Bitboard.WHITE : Bitboard.BLACK) * 6 + getType();
+    }
+
     // Returns TRUE = white, FALSE = black
     public boolean get_isWhite()
     {
@@ -38,47 +59,18 @@ abstract public class Piece
     */
     abstract boolean canMove(int r1, int c1, int r2, int c2);
 
-    public boolean get_hasMoved()
-    {
-        return true;
-    }
-
-    // Sets the piece's hasMoved variable to TRUE -> meaning it's moved
-    public void moved()
-    {
-        return;
-    }
-
-    // Sets the piece's moved to false
-    public void undoMoved()
-    {
-        return;
-    }
 }
 
 class King extends Piece
 {
-    private boolean _hasMoved;
-
     public King(boolean isWhite)
     {
         super(isWhite);
-        _hasMoved = false;
-    }
-
-    public boolean get_hasMoved()
-    {
-        return _hasMoved;
-    }
-
-    public void moved()
-    {
-        _hasMoved = true;
     }
 
-    public void undoMoved()
+    int getType()
     {
-        _hasMoved = false;
+        return Bitboard.KING;
     }
 
     public boolean canMove(int r1, int c1, int r2, int c2)
@@ -96,7 +88,7 @@ class King extends Piece
             isValid = true;
         else if (colDiff == 0 && rowDiff == 1) // Vertical moves
             isValid = true;
-        else if (colDiff == 2 && rowDiff == 0 && !_hasMoved) // Castling
+        else if (colDiff == 2 && rowDiff == 0) // Castling, if the board allows
             isValid = true;
 
         return isValid;
@@ -110,6 +102,11 @@ class Queen extends Piece
         super(isWhite);
     }
 
+    int getType()
+    {
+        return Bitboard.QUEEN;
+    }
+
 
     public boolean canMove(int r1, int c1, int r2, int c2)
     {
@@ -126,28 +123,14 @@ class Queen extends Piece
 
 class Rook extends Piece
 {
-
-    private boolean _hasMoved;
-
     public Rook(boolean isWhite)
     {
         super(isWhite);
-        _hasMoved = false;
-    }
-
-    public boolean get_hasMoved()
-    {
-        return _hasMoved;
-    }
-
-    public void moved()
-    {
-        _hasMoved = true;
     }
 
-    public void undoMoved()
+    int getType()
     {
-        _hasMoved = false;
+        return Bitboard.ROOK;
     }
 
     public boolean canMove(int r1, int c1, int r2, int c2)
@@ -163,6 +146,11 @@ class Bishop extends Piece
         super(isWhite);
     }
 
+    int getType()
+    {
+        return Bitboard.BISHOP;
+    }
+
 
     // A legal bishop move is one that is perfectly diagonal
     // A diagonal move means the difference in the change of the
@@ -191,6 +179,11 @@ class Knight extends Piece
         super(isWhite);
     }
 
+    int getType()
+    {
+        return Bitboard.KNIGHT;
+    }
+
 
     public boolean canMove(int r1, int c1, int r2, int c2)
     {
@@ -206,26 +199,14 @@ class Knight extends Piece
 
 class Pawn extends Piece
 {
-    private boolean _hasMoved;
-
-
     public Pawn (boolean isWhite)
     {
         super(isWhite);
-        _hasMoved = false;
     }
 
-    public boolean get_hasMoved()
-    {
-        return _hasMoved;
-    }
-    public void moved()
-    {
-        _hasMoved = true;
-    }
-    public void undoMoved()
+    int getType()
     {
-        _hasMoved = false;
+        return Bitboard.PAWN;
     }
 
     // Assumes the pawn move is not legal, unless any of the conditions
@@ -237,12 +218,13 @@ class Pawn extends Piece
         if (_isWhite) // WHITE PAWNS
         {
             // Straight move -- only allowed to either advance one unit
-            // forward if already moved, or a choice of 1 or 2 if player hasn't
+            // forward if already moved, or a choice of 1 or 2 from its
+            // starting row
             if (c1 == c2)
             {
                 if ((r1 - r2 == 1))
                     validMove = true;
-                else if (!_hasMoved && (r1 - r2 == 2))
+                else if (r1 == 6 && (r1 - r2 == 2))
                     validMove = true;
             }
             // Capture move -- only allowed to capture pieces one unit diagonally
@@ -257,7 +239,7 @@ class Pawn extends Piece
             {
                 if ((r2 - r1 == 1))
                     validMove = true;
-                else if (!_hasMoved && (r2 - r1 == 2))
+                else if (r1 == 1 && (r2 - r1 == 2))
                     validMove = true;
             }
             else if ((r2 - r1 == 1) && ((c2 - c1 == 1) || (c2 - c1 == -1)))
@@ -0,0 +1,90 @@
+/*
+   Briggs Richardson
+
+   Measures how long the computer takes to search a set of positions to a
+   fixed depth with 1, 2, ... N threads, and prints the speedup over a
+   single thread (the time-to-depth speedup curve of the parallel search).
+   Every run uses fresh boards, so no run benefits from the transposition
+   table of an earlier one. The parallel search is Lazy SMP, or young
+   brothers wait with "ybw"; the 1 thread run is the same plain search
+   either way, so the two curves can be compared.
+
+   Usage: java SearchBenchmark [depth] [max threads] [lazy | ybw]
+*/
+
+public class SearchBenchmark
+{
+    // Each position is reached by playing these moves from the start. A
+    // move is written as the digits r1 c1 r2 c2.
+    static final String[][] POSITIONS =
+            {
+                    // Opening: Italian game
+                    {"6444", "1434", "7655", "0122", "7542"},
+                    // Sicilian, after the knights come out
+                    {"6444", "1232", "7655", "1323", "6343", "3243", "5543", "0625"},
+                    // Queen's gambit declined
+                    {"6343", "1333", "6242", "1424", "7152", "0625", "7236", "0514"}
+            };
+
+    public static void main(String[] args)
+    {
+        int depth = (args.length > 0)? Integer.parseInt(args[0]) : 6;
+        int maxThreads = (args.length > 1)? Integer.parseInt(args[1]) :
+                Runtime.getRuntime().availableProcessors();
+        int mode = (args.length > 2 && args[2].equals("ybw"))?
+                LogicBoard.YOUNG_BROTHERS : LogicBoard.LAZY_SMP;
+
+        System.out.println("Depth " + depth + ", " + POSITIONS.length + " positions, " +
+                ((mode == LogicBoard.YOUNG_BROTHERS)? "young brothers wait" : "Lazy SMP"));
+        System.out.println("threads    time (ms)    speedup");
+
+        // One untimed pass first, so the JIT compiler has warmed up before
+        // the single thread run is measured
+        for (int i = 0; i < POSITIONS.length; ++i)
+            timeToDepth(POSITIONS[i], depth, 1, mode);
+
+        long single = 0;
+        for (int threads = 1; threads <= maxThreads; ++threads)
+        {
+            long total = 0;
+            for (int i = 0; i < POSITIONS.length; ++i)
+                total += timeToDepth(POSITIONS[i], depth, threads, mode);
+
+            if (threads == 1)
+                single = total;
+            System.out.printf("%7d %12d %10.2f%n", threads, total / 1000000,
+                    (double) single / total);
+        }
+    }
+
+    // Returns the nanoseconds the search of a position to the depth takes
+    private static long timeToDepth(String[] moves, int depth, int threads, int mode)
+    {
+        LogicBoard logic = new LogicBoard();
+        for (int i = 0; i < moves.length; ++i)
+            play(logic, moves[i]);
+
+        logic.setThreads(threads);
+        logic.setParallelMode(mode);
+        logic.setMaxDepth(depth);
+        logic.setTimeBudget(24L * 60 * 60 * 1000); // No time limit
+
+        long start = System.nanoTime();
+        logic.computerTurn();
+        return System.nanoTime() - start;
+    }
+
+    // Plays a move on the board the same way the ChessGUI does
+    static void play(LogicBoard logic, String move)
+    {
+        int r1 = move.charAt(0) - '0';
+        int c1 = move.charAt(1) - '0';
+        int r2 = move.charAt(2) - '0';
+        int c2 = move.charAt(3) - '0';
+        if (!logic.isValid(r1, c1, r2, c2))
+            throw new IllegalArgumentException("Illegal move " + move);
+        logic.setFirstMove(r1, c1);
+        logic.updateBoard(r1, c1, r2, c2);
+        logic.switchTurn();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+   Briggs Richardson
+
+   Java Flight Recorder events of the computer's search, so a recording
+   shows what the engine was doing next to the JVM's own events (garbage
+   collections, safepoints, ...). They are under the "Chess" category:
+
+   - ComputerTurn: one per computerTurn, with the depth reached, positions
+     visited, score and the move chosen
+   - Iteration: one per iteration of iterative deepening
+   - MoveGeneration and LeafEvaluation: samples of the two things the search
+     does at almost every node, generating moves and settling the score of
+     a leaf (the quiescence search). Only one call in SAMPLE_RATE is timed,
+     so recording doesn't slow the search down.
+
+   The LogicBoard checks isEnabled before timing anything, so when nothing
+   is recording, the events cost nothing. It doesn't even create an event
+   unless the Flight Recorder has been started (isRecording), since loading
+   the first event class starts up the recorder's machinery, which takes a
+   noticeable fraction of a second. Record with, for example:
+   java -XX:StartFlightRecording=filename=chess.jfr InitiateProgram
+*/
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class SearchEvents
+{
+    // One in SAMPLE_RATE calls is timed by the sampled events
+    static final int SAMPLE_RATE = 1024;
+    static final int SAMPLE_MASK = SAMPLE_RATE - 1;
+
+    private SearchEvents()
+    {
+    }
+
+    // Returns true once the Flight Recorder has been started, either on the
+    // command line or later on (with jcmd)
+    static boolean isRecording()
+    {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("chess.ComputerTurn")
+    @Label("Computer Turn")
+    @Category({"Chess", "Search"})
+    @Description("A search for the computer's move")
+    public static class ComputerTurn extends Event
+    {
+        @Label("Depth")
+        @Description("Deepest iteration completed")
+        int depth;
+
+        @Label("Nodes")
+        @Description("Positions visited by every thread")
+        long nodes;
+
+        @Label("Score")
+        @Description("Score of the deepest completed iteration, from white's side")
+        double score;
+
+        @Label("Move")
+        String move;
+
+        @Label("Threads")
+        int threads;
+    }
+
+    @Name("chess.Iteration")
+    @Label("Iteration")
+    @Category({"Chess", "Search"})
+    @Description("One iteration of iterative deepening")
+    public static class Iteration extends Event
+    {
+        @Label("Depth")
+        int depth;
+
+        @Label("Nodes")
+        @Description("Positions visited by this thread since the search started")
+        long nodes;
+
+        @Label("Score")
+        double score;
+
+        @Label("Best Move")
+        String move;
+
+        @Label("Completed")
+        @Description("False if the iteration was stopped by the time or node limit")
+        boolean completed;
+    }
+
+    @Name("chess.MoveGeneration")
+    @Label("Move Generation")
+    @Category({"Chess", "Search", "Sampled"})
+    @Description("Generating the moves of a position, one call in 1024")
+    public static class MoveGeneration extends Event
+    {
+        @Label("Moves")
+        int moves;
+
+        @Label("Captures Only")
+        boolean capturesOnly;
+    }
+
+    @Name("chess.LeafEvaluation")
+    @Label("Leaf Evaluation")
+    @Category({"Chess", "Search", "Sampled"})
+    @Description("The quiescence search of a leaf of minimax, one leaf in 1024")
+    public static class LeafEvaluation extends Event
+    {
+        @Label("Nodes")
+        @Description("Positions the quiescence search visited")
+        long nodes;
+
+        @Label("Score")
+        double score;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+   Briggs Richardson
+
+   The SearchStats class holds the statistics of one search by the
+   computer: how many positions it visited (and how many of those were in
+   the quiescence search), how often moves caused a cutoff and how often
+   that was the first move tried, how often the transposition table had
+   the position, how many positions were looked up in the endgame
+   tablebases, how deep the search went, and how long each iteration of
+   iterative deepening took.
+
+   Every board that searches (the main board, the Lazy SMP helpers, the
+   young brothers boards) counts into a SearchStats of its own, with plain
+   fields, so counting costs next to nothing and no thread waits on another.
+   When the search is over, the counts are added together into a new
+   SearchStats, which LogicBoard.getSearchStats returns.
+*/
+
+public class SearchStats
+{
+    private static final int MAX_DEPTH = 64;
+
+    long nodes;
+    long quiescenceNodes;
+    long cutoffs;
+    long firstMoveCutoffs;
+    long tableProbes;
+    long tableHits;
+    long tablebaseHits;     // Positions looked up in the endgame tablebases
+    int selectiveDepth;     // Deepest ply reached, quiescence included
+    int depth;              // Deepest iteration completed
+    double score;           // Its score, from white's side
+    int move;               // The move chosen (packed, see LogicBoard)
+    long elapsedNanos;      // Time of the whole search
+    long[] iterationNanos = new long[MAX_DEPTH + 1]; // Time of each iteration
+    int[] iterationMoves = new int[MAX_DEPTH + 1];   // Best move of each
+
+    // Sets every count back to 0, for a new search
+    void reset()
+    {
+        nodes = 0;
+        quiescenceNodes = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        tablebaseHits = 0;
+        selectiveDepth = 0;
+        depth = 0;
+        score = 0;
+        move = 0;
+        elapsedNanos = 0;
+    }
+
+    // Adds another board's counts to these. Only the main board times its
+    // iterations, so those are taken from whichever board has them.
+    void add(SearchStats other)
+    {
+        nodes += other.nodes;
+        quiescenceNodes += other.quiescenceNodes;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        tableProbes += other.tableProbes;
+        tableHits += other.tableHits;
+        tablebaseHits += other.tablebaseHits;
+        selectiveDepth = Math.max(selectiveDepth, other.selectiveDepth);
+        if (other.depth > depth)
+        {
+            depth = other.depth;
+            System.arraycopy(other.iterationNanos, 0, iterationNanos, 0, depth + 1);
+            System.arraycopy(other.iterationMoves, 0, iterationMoves, 0, depth + 1);
+        }
+    }
+
+    // Records that an iteration finished, how long it took, and its move
+    void completedIteration(int depth, long nanos, int move)
+    {
+        this.depth = depth;
+        iterationNanos[depth] = nanos;
+        iterationMoves[depth] = move;
+    }
+
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    public long getQuiescenceNodes()
+    {
+        return quiescenceNodes;
+    }
+
+    // Positions visited per second, by every thread together
+    public double getNodesPerSecond()
+    {
+        if (elapsedNanos == 0)
+            return 0;
+        return nodes * 1e9 / elapsedNanos;
+    }
+
+    public long getCutoffs()
+    {
+        return cutoffs;
+    }
+
+    // Fraction of the cutoffs caused by the first move tried, a measure of
+    // how well moves are ordered
+    public double getFirstMoveCutoffRate()
+    {
+        if (cutoffs == 0)
+            return 0;
+        return (double) firstMoveCutoffs / cutoffs;
+    }
+
+    public long getTableProbes()
+    {
+        return tableProbes;
+    }
+
+    public long getTableHits()
+    {
+        return tableHits;
+    }
+
+    public long getTablebaseHits()
+    {
+        return tablebaseHits;
+    }
+
+    public int getSelectiveDepth()
+    {
+        return selectiveDepth;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    // Score of the deepest completed iteration, from white's side
+    public double getScore()
+    {
+        return score;
+    }
+
+    // The move chosen, packed (see LogicBoard)
+    int getMove()
+    {
+        return move;
+    }
+
+    // The best move of the iteration of the given depth, packed
+    int getIterationMove(int depth)
+    {
+        return iterationMoves[depth];
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    // Time (in nanoseconds) the iteration of the given depth took, or 0 if
+    // it didn't complete
+    public long getIterationNanos(int depth)
+    {
+        if (depth < 1 || depth > this.depth)
+            return 0;
+        return iterationNanos[depth];
+    }
+
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("depth %d seldepth %d nodes %d (quiescence %d) %.0f nps, " +
+                        "cutoffs %d (%.1f%% first move), table %d/%d hits, %d tablebase hits, %d ms",
+                depth, selectiveDepth, nodes, quiescenceNodes, getNodesPerSecond(),
+                cutoffs, 100 * getFirstMoveCutoffRate(), tableHits, tableProbes,
+                tablebaseHits, elapsedNanos / 1000000));
+        sb.append(", iterations (ms):");
+        for (int d = 1; d <= depth; ++d)
+            sb.append(' ').append(iterationNanos[d] / 1000000);
+        return sb.toString();
+    }
+}
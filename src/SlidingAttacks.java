@@ -0,0 +1,226 @@
+/*
+   Briggs Richardson
+
+   Precomputed attack tables for the sliding pieces (rook, bishop, and the
+   queen as both). Instead of walking a ray square by square, the attack
+   set of a slider is looked up with "magic" multiplication:
+
+      1) Keep only the blockers that matter for that square (the mask)
+      2) Multiply by the square's magic number, and shift down the top bits
+      3) Use the result as an index into that square's slice of the table
+
+   The magic numbers were found ahead of time for this board's square
+   numbering (square = row * 8 + col), so that every blocker set of a
+   square lands on an index holding the right attack set. The tables
+   themselves are filled in once, when the class loads.
+
+   The between table holds the squares strictly between two squares on
+   the same line, which is used for castling paths.
+
+   Running this class prints the time spent building the tables and the
+   memory they take up.
+*/
+
+public class SlidingAttacks
+{
+    // Building the tables should never noticeably delay the game starting
+    public static final long INIT_BUDGET_MILLIS = 50;
+
+    private static final long[] ROOK_MAGICS =
+            {
+                    0x0180002040001A80L, 0x0840001006200040L, 0x0C801000802000D8L, 0x0900041001002008L,
+                    0x0080080004008002L, 0x2200081002000144L, 0x1080020000800100L, 0xA080050008204080L,
+                    0x4010800020400080L, 0x6241004001002085L, 0x0108801003882000L, 0x4050801000480380L,
+                    0x0C20808004000800L, 0x2020800400808200L, 0x0405000200040100L, 0x8060800080015700L,
+                    0x808000C000200040L, 0x2070004000402000L, 0x0000110041002001L, 0x0008008010000880L,
+                    0x0108010009050010L, 0x0023010004000208L, 0x1000010100040200L, 0x2000020000910C44L,
+                    0x0A40084080082080L, 0x0000200040100041L, 0x0810002020040800L, 0x40100021000C1100L,
+                    0x2201000500304800L, 0x0012040080800200L, 0x0080040101000200L, 0x0000110200104884L,
+                    0x0AC081C001800020L, 0x0010022004400240L, 0x0E01D00082802000L, 0x06B001002100100CL,
+                    0x1000080080800402L, 0x00A4000200808004L, 0x0080100914006208L, 0x0100208842000405L,
+                    0xA000902040008008L, 0x0400400081010020L, 0x0040860120460010L, 0x0802400A00120021L,
+                    0x0008002040040400L, 0x0090102004080140L, 0x0000500102440008L, 0x0840408043060004L,
+                    0x0508220480410200L, 0xC418400020009080L, 0x0009001040200100L, 0x0028000884100080L,
+                    0xC028020004004040L, 0x0420800200040080L, 0x0001020108100400L, 0x1506008422550200L,
+                    0x0802021140A10082L, 0x0509018240022099L, 0x08020020400C1082L, 0x6492250048211001L,
+                    0x0042000410082002L, 0x0012008441100802L, 0x04E1421008014084L, 0x8002111020840042L
+            };
+
+    private static final long[] BISHOP_MAGICS =
+            {
+                    0x084081220404C980L, 0x002004044240CC00L, 0x421000821C402000L, 0x2004240490023018L,
+                    0x0002021000000800L, 0x1111042004080020L, 0x8801041220842820L, 0x9210411400A0C280L,
+                    0x0350040802480201L, 0x8000854418060820L, 0x29000418008D0605L, 0x0021442420810400L,
+                    0x010AC20210008180L, 0x0300009010080000L, 0x000C820090241280L, 0x0028002701101000L,
+                    0x000A000408B0040DL, 0x0003011030010910L, 0x0118021002802808L, 0x9088100222004000L,
+                    0x8014108202021110L, 0x0010802510100100L, 0x4000442108080400L, 0x0204450680480820L,
+                    0x0010410010C20220L, 0x0004201110021080L, 0x1070445208080300L, 0x0020200800808080L,
+                    0x0001010000104010L, 0x08A8084002025202L, 0x8042420002809050L, 0x42824F0015840100L,
+                    0x0061080801212004L, 0x2020842120840810L, 0x0101040201010804L, 0x00001808000A0A00L,
+                    0x4824024090040100L, 0x0104100610208800L, 0x0008088408108A10L, 0x8040C11100420080L,
+                    0x0900822090002010L, 0x0024840420002280L, 0x0205040202002102L, 0x0000860204200204L,
+                    0x48008810140261C0L, 0x2001500901C08201L, 0x2002B212220A0400L, 0x2008108400900C48L,
+                    0x0010410820100040L, 0x0000404824301002L, 0x1080018098210012L, 0x0000000220A802A8L,
+                    0x0244800803040084L, 0x04800A6004242010L, 0x1040030404008406L, 0x00202400C2104018L,
+                    0x4804140B01101011L, 0x1040402128021020L, 0x0000038024020800L, 0x0940000011040902L,
+                    0x0051010020042400L, 0x2080D2C902580201L, 0x0080090810541044L, 0x2A04100088110041L
+            };
+
+    // Row / column steps of the straight then the diagonal rays
+    private static final int[] RAY_ROW = {-1, 1, 0, 0, -1, -1, 1, 1};
+    private static final int[] RAY_COL = {0, 0, -1, 1, -1, 1, -1, 1};
+
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final int[] ROOK_OFFSETS = new int[64];
+    private static final int[] BISHOP_OFFSETS = new int[64];
+    private static final long[] ROOK_TABLE;
+    private static final long[] BISHOP_TABLE;
+    private static final long[][] BETWEEN = new long[64][64];
+
+    // Nanoseconds spent building the tables
+    static final long INIT_NANOS;
+
+    static
+    {
+        long start = System.nanoTime();
+
+        ROOK_TABLE = new long[fillMasks(ROOK_MASKS, ROOK_SHIFTS, ROOK_OFFSETS, 0, 4)];
+        BISHOP_TABLE = new long[fillMasks(BISHOP_MASKS, BISHOP_SHIFTS, BISHOP_OFFSETS, 4, 8)];
+
+        for (int sq = 0; sq < 64; ++sq)
+        {
+            fillTable(sq, ROOK_TABLE, ROOK_MASKS, ROOK_MAGICS, ROOK_SHIFTS, ROOK_OFFSETS, 0, 4);
+            fillTable(sq, BISHOP_TABLE, BISHOP_MASKS, BISHOP_MAGICS, BISHOP_SHIFTS,
+                    BISHOP_OFFSETS, 4, 8);
+        }
+
+        // Squares between two squares on a line are where the attacks of
+        // each square, with only the other square blocking, overlap
+        for (int a = 0; a < 64; ++a)
+        {
+            for (int b = 0; b < 64; ++b)
+            {
+                long blockers = Bitboard.bit(a) | Bitboard.bit(b);
+                if ((rookAttacks(a, 0L) & Bitboard.bit(b)) != 0)
+                    BETWEEN[a][b] = rookAttacks(a, blockers) & rookAttacks(b, blockers);
+                else if ((bishopAttacks(a, 0L) & Bitboard.bit(b)) != 0)
+                    BETWEEN[a][b] = bishopAttacks(a, blockers) & bishopAttacks(b, blockers);
+            }
+        }
+
+        INIT_NANOS = System.nanoTime() - start;
+    }
+
+    // Squares a rook on sq attacks, up to and including the first blocker
+    // in each direction
+    public static long rookAttacks(int sq, long occupied)
+    {
+        long blockers = occupied & ROOK_MASKS[sq];
+        return ROOK_TABLE[ROOK_OFFSETS[sq] + (int) ((blockers * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    // Squares a bishop on sq attacks, same rules as the rook
+    public static long bishopAttacks(int sq, long occupied)
+    {
+        long blockers = occupied & BISHOP_MASKS[sq];
+        return BISHOP_TABLE[BISHOP_OFFSETS[sq] + (int) ((blockers * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    // Squares strictly between a and b, or 0 if they don't share a line
+    public static long between(int a, int b)
+    {
+        return BETWEEN[a][b];
+    }
+
+    /*
+       Computes each square's mask: the squares along its rays except for the
+       last one on the edge of the board (a piece there can't block anything
+       further). The table slice of a square needs 2^(bits in mask) entries.
+       Returns the total size of the table.
+    */
+    private static int fillMasks(long[] masks, int[] shifts, int[] offsets,
+                                 int firstRay, int lastRay)
+    {
+        int size = 0;
+        for (int sq = 0; sq < 64; ++sq)
+        {
+            masks[sq] = rayAttacks(sq, 0L, firstRay, lastRay, true);
+            int bits = Long.bitCount(masks[sq]);
+            shifts[sq] = 64 - bits;
+            offsets[sq] = size;
+            size += 1 << bits;
+        }
+        return size;
+    }
+
+    // Walks every subset of the square's mask, and stores the attack set of
+    // that blocker arrangement at its magic index
+    private static void fillTable(int sq, long[] table, long[] masks, long[] magics,
+                                  int[] shifts, int[] offsets, int firstRay, int lastRay)
+    {
+        long mask = masks[sq];
+        long blockers = 0L;
+        do
+        {
+            int index = (int) ((blockers * magics[sq]) >>> shifts[sq]);
+            table[offsets[sq] + index] = rayAttacks(sq, blockers, firstRay, lastRay, false);
+            blockers = (blockers - mask) & mask;
+        }
+        while (blockers != 0);
+    }
+
+    // Walks each ray from sq until the edge or a blocker. For masks the
+    // final edge square of every ray is left out.
+    private static long rayAttacks(int sq, long occupied, int firstRay, int lastRay,
+                                   boolean mask)
+    {
+        long attacks = 0L;
+        for (int i = firstRay; i < lastRay; ++i)
+        {
+            int r = sq / 8 + RAY_ROW[i];
+            int c = sq % 8 + RAY_COL[i];
+            while (r >= 0 && r <= 7 && c >= 0 && c <= 7)
+            {
+                int nextR = r + RAY_ROW[i];
+                int nextC = c + RAY_COL[i];
+                if (mask && (nextR < 0 || nextR > 7 || nextC < 0 || nextC > 7))
+                    break;
+
+                long b = Bitboard.bit(r * 8 + c);
+                attacks |= b;
+                if ((occupied & b) != 0)
+                    break;
+                r = nextR;
+                c = nextC;
+            }
+        }
+        return attacks;
+    }
+
+    // Total bytes held by the lookup tables
+    public static long tableBytes()
+    {
+        long longs = ROOK_TABLE.length + BISHOP_TABLE.length + 64 * 64 +
+                6 * 64; // masks and magics
+        long ints = 4 * 64; // shifts and offsets
+        return longs * 8 + ints * 4;
+    }
+
+    // Prints the startup time and memory footprint of the tables
+    public static void main(String[] args)
+    {
+        long millis = INIT_NANOS / 1000000;
+        System.out.println("Rook table:    " + ROOK_TABLE.length + " entries, " +
+                (ROOK_TABLE.length * 8 / 1024) + " KB");
+        System.out.println("Bishop table:  " + BISHOP_TABLE.length + " entries, " +
+                (BISHOP_TABLE.length * 8 / 1024) + " KB");
+        System.out.println("Between table: " + (64 * 64) + " entries, " +
+                (64 * 64 * 8 / 1024) + " KB");
+        System.out.println("Total:         " + (tableBytes() / 1024) + " KB");
+        System.out.println("Startup time:  " + (INIT_NANOS / 1000) + " us (budget " +
+                INIT_BUDGET_MILLIS + " ms" + ((millis <= INIT_BUDGET_MILLIS)? ", OK)" : ", OVER)"));
+    }
+}
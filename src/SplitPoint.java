@@ -0,0 +1,120 @@
+/*
+   Briggs Richardson
+
+   The SplitPoint class is used by the young brothers wait (fork/join)
+   search, along with BrotherTask.
+*/
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+   A split point is a position whose moves are being searched in parallel.
+   Its first move (the eldest brother) has already been searched, and each
+   of the remaining moves (the younger brothers) is searched by its own
+   fork/join task. The tasks share the split point's alpha / beta window and
+   best score. As soon as one of them causes a cutoff, the split point is
+   cancelled, and so is everything being searched beneath it.
+
+   The split point at the top (no parent) stands for the whole search. It
+   is cancelled when the search runs out of time or nodes, counts the nodes
+   of every task, and keeps spare boards for tasks to reuse.
+*/
+public class SplitPoint
+{
+    final SplitPoint parent;
+    final SplitPoint root;
+    private final boolean maximizer;
+
+    private double alpha;
+    private double beta;
+    private double bestEval;
+    private int bestIndex;
+    private volatile boolean cancelled;
+
+    // Only used by the root split point
+    final ConcurrentLinkedQueue<LogicBoard> spares;
+    private final AtomicLong nodes;
+
+    public SplitPoint(SplitPoint parent, double alpha, double beta,
+                      boolean maximizer, double bestEval, int bestIndex)
+    {
+        this.parent = parent;
+        this.root = (parent == null)? this : parent.root;
+        this.maximizer = maximizer;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.bestEval = bestEval;
+        this.bestIndex = bestIndex;
+        this.spares = (parent == null)? new ConcurrentLinkedQueue<LogicBoard>() : null;
+        this.nodes = (parent == null)? new AtomicLong() : null;
+    }
+
+    public synchronized double getAlpha()
+    {
+        return alpha;
+    }
+
+    public synchronized double getBeta()
+    {
+        return beta;
+    }
+
+    public synchronized double getBestEval()
+    {
+        return bestEval;
+    }
+
+    public synchronized int getBestIndex()
+    {
+        return bestIndex;
+    }
+
+    // Records the score of the move at the given index, narrowing the
+    // window. If the window closes, the rest of the brothers are cancelled.
+    public synchronized void report(double eval, int index)
+    {
+        if (maximizer)
+        {
+            if (eval > bestEval)
+            {
+                bestEval = eval;
+                bestIndex = index;
+            }
+            alpha = Math.max(alpha, eval);
+        }
+        else
+        {
+            if (eval < bestEval)
+            {
+                bestEval = eval;
+                bestIndex = index;
+            }
+            beta = Math.min(beta, eval);
+        }
+        if (beta <= alpha)
+            cancelled = true;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    // A split point is cancelled if it, or any split point above it, is
+    public boolean isCancelled()
+    {
+        for (SplitPoint sp = this; sp != null; sp = sp.parent)
+        {
+            if (sp.cancelled)
+                return true;
+        }
+        return false;
+    }
+
+    // Adds to the node count of the whole search, returning the new total
+    public long addNodes(long count)
+    {
+        return root.nodes.addAndGet(count);
+    }
+}
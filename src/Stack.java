@@ -1,66 +1,105 @@
 /*
    Briggs Richardson
-   
+
    The stack class has the data structure of a stack. It contains
-   records of MoveUndo, which has all the properties necessary
-   for a undo-move function. This way, the chess program can
-   undo a move when it is evaluating within minimax.
+   everything necessary for a undo-move function, so the chess program
+   can undo a move when it is evaluating within minimax.
+
+   The records are kept in parallel arrays of primitives, one entry per
+   move made (so per ply of the search), instead of an object per move.
+   Nothing is allocated while searching, unless the stack has to grow.
+   Pieces are stored by their Bitboard code, colour * 6 + type.
 */
 
+import java.util.Arrays;
+
 public class Stack
 {
-    private MoveUndo[] store;
-    private static int front = 0;
+    private int[] moves;            // Packed moves, in LogicBoard's format
+    private byte[] movers;          // Code of the piece that moved
+    private byte[] captures;        // Code of the piece captured, or -1
+    private byte[] castling;        // Castling rights before the move
+    private int[] passantSquares;   // Pawn capturable En Passant, or -1
+    private int[] halfmoveClocks;   // Halfmove clock before the move
+    private int front = 0;
     private static final int ALLOC = 150;
 
     public Stack()
     {
-        store = new MoveUndo[ALLOC];
+        moves = new int[ALLOC];
+        movers = new byte[ALLOC];
+        captures = new byte[ALLOC];
+        castling = new byte[ALLOC];
+        passantSquares = new int[ALLOC];
+        halfmoveClocks = new int[ALLOC];
     }
 
-    public void insert (int r1, int c1, int r2, int c2, boolean sMoved,
-                        boolean cMoved, boolean sWhite, boolean cWhite, String cName,
-                        boolean castle, boolean passant, boolean promotion)
+    public void insert (int move, int mover, int captured, int castlingRights,
+                        int passantSquare, int halfmoveClock)
     {
-        if (front == store.length)
-        {
-            MoveUndo[] temp = new MoveUndo[store.length * 2];
-            for (int i = 0; i < store.length; ++i)
-            {
-                temp[i] = store[i];
-            }
-            store = temp;
-        }
-
-        store[front] = new MoveUndo();
-
-        store[front]._r1 = r1;
-        store[front]._c1 = c1;
-        store[front]._r2 = r2;
-        store[front]._c2 = c2;
-        store[front]._sMoved = sMoved;
-        store[front]._cMoved = cMoved;
-        store[front]._sWhite = sWhite;
-        store[front]._cWhite = cWhite;
-        store[front]._cName = cName;
-        store[front]._castle = castle;
-        store[front]._passant = passant;
-        store[front]._promotion = promotion;
+        if (front == moves.length)
+            grow();
+
+        moves[front] = move;
+        movers[front] = (byte) mover;
+        captures[front] = (byte) captured;
+        castling[front] = (byte) castlingRights;
+        passantSquares[front] = passantSquare;
+        halfmoveClocks[front] = halfmoveClock;
 
         ++front;
     }
 
-    public MoveUndo pop()
+    // Removes the top record, and returns its index for the getters below
+    public int pop()
     {
         --front;
-        return store[front];
+        return front;
+    }
+
+    public int move(int i)
+    {
+        return moves[i];
+    }
+
+    public int mover(int i)
+    {
+        return movers[i];
+    }
+
+    public int captured(int i)
+    {
+        return captures[i];
+    }
+
+    public int castling(int i)
+    {
+        return castling[i];
+    }
+
+    public int passantSquare(int i)
+    {
+        return passantSquares[i];
+    }
+
+    public int halfmoveClock(int i)
+    {
+        return halfmoveClocks[i];
     }
 
     public void clearStack()
     {
-        for (int i = 0; i < front; ++i)
-        {
-            store[i] = null;
-        }
+        front = 0;
+    }
+
+    private void grow()
+    {
+        int size = moves.length * 2;
+        moves = Arrays.copyOf(moves, size);
+        movers = Arrays.copyOf(movers, size);
+        captures = Arrays.copyOf(captures, size);
+        castling = Arrays.copyOf(castling, size);
+        passantSquares = Arrays.copyOf(passantSquares, size);
+        halfmoveClocks = Arrays.copyOf(halfmoveClocks, size);
     }
-}
\ No newline at end of file
+}
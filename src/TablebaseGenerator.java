@@ -0,0 +1,753 @@
+/*
+   Briggs Richardson
+
+   TablebaseGenerator works out the table of an ending (see Tablebases) by
+   retrograde analysis: rather than searching forwards from each position,
+   it starts from the checkmates and works backwards, a ply at a time.
+   - A position is mated in 0 plies if it is checkmate.
+   - A position wins in d + 1 plies if it has a move to a position lost in
+     d plies (and no faster one): those are found by taking back every move
+     that could have led to the positions lost in d plies.
+   - A position loses in d + 1 plies once every one of its moves has been
+     found to lead to a win for the other side, the slowest of them in d
+     plies: each position keeps a count of its moves not yet known to lose,
+     which taking back a move from a won position counts down.
+   Whatever is left when no more positions are found is a draw.
+
+   Moves that capture or promote leave the ending, for a smaller one (or
+   one with other pieces), whose table is made first and looked up. A
+   position's best and worst results by such moves are worked out before
+   the first ply, and taken into account at the ply they fall on.
+
+   A pawn's double push that lands beside an enemy pawn is the one move
+   that stays in the ending but doesn't lead to a position of the table:
+   the other side may also take it En Passant. The other side gets the
+   better of the two, so the push is worth what the table has for the
+   position after it, held back by the value of the capture, which is
+   looked up in the smaller table before the first ply:
+   - If the capture wins, the push loses, by the ply it falls on at the
+     latest.
+   - If it draws, the push can't win.
+   - If it loses, the push only wins once both it and the position after
+     the push are lost, the later of the two.
+
+   Every ply is one pass over the table, which is split into chunks the
+   threads take in turn. The passes are the only thing waited on: positions
+   are updated with atomic compare and set, and the counts with atomic
+   decrements, so the threads never lock.
+*/
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TablebaseGenerator
+{
+    private static final int UNKNOWN = 254;     // Not worked out yet
+    private static final int HOLD = 255;        // A capture or promotion draws
+    private static final int MAX_VALUE = 253;   // Longest mate a byte holds
+    private static final int CHUNK = 1 << 14;   // Positions a thread takes at a time
+
+    // Atomic access to the elements of a byte array
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final String ending;
+    private final int n;            // Number of pieces
+    private final int[] types;      // Of each piece, in the order of the index
+    private final int[] colours;
+    private final int size;
+    private final Tablebases smaller;   // To look up captures and promotions
+    private final ExecutorService pool;
+    private final int threads;
+
+    // One byte per position
+    private final byte[] values;        // As stored (see Tablebases), or UNKNOWN
+    private final byte[] counts;        // Moves staying in the ending not known to lose
+    private final byte[] bestCaptures;  // Fastest win by a capture or promotion, or 0
+                                        // (or by a double push, see takeBack)
+    private final byte[] worstCaptures; // Slowest loss by one, 0, or HOLD if one draws
+    private final byte[] passants;      // A double push's value if taken En Passant,
+                                        // 0 if none can be, or HOLD if it draws
+    private int longestCapture;         // Longest win or loss of those
+
+    private TablebaseGenerator(String ending, Tablebases smaller, ExecutorService pool, int threads)
+    {
+        this.ending = ending;
+        this.smaller = smaller;
+        this.pool = pool;
+        this.threads = threads;
+
+        // White's king, black's king, then the others in the ending's order
+        n = ending.length();
+        types = new int[n];
+        colours = new int[n];
+        int black = ending.indexOf('K', 1);
+        types[0] = Bitboard.KING;
+        colours[0] = Bitboard.WHITE;
+        types[1] = Bitboard.KING;
+        colours[1] = Bitboard.BLACK;
+        int k = 2;
+        for (int i = 1; i < n; ++i)
+        {
+            if (i == black)
+                continue;
+            types[k] = Tablebases.LETTER_TYPES[Tablebases.LETTERS.indexOf(ending.charAt(i))];
+            colours[k++] = (i < black)? Bitboard.WHITE : Bitboard.BLACK;
+        }
+
+        size = Tablebases.size(ending);
+        values = new byte[size];
+        counts = new byte[size];
+        bestCaptures = new byte[size];
+        worstCaptures = new byte[size];
+        passants = new byte[size];
+    }
+
+    /*
+       Writes the table of an ending into a directory, unless it is there
+       already, first writing the tables of the endings its captures and
+       promotions lead to.
+    */
+    static void generate(String ending, Path directory, int threads)
+            throws IOException, InterruptedException
+    {
+        ending = Tablebases.canonical(ending);
+        Path file = directory.resolve(ending + Tablebases.EXTENSION);
+        if (Files.exists(file))
+            return;
+        List<String> smallerEndings = smallerEndings(ending);
+        for (String smaller : smallerEndings)
+            generate(smaller, directory, threads);
+
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            TablebaseGenerator generator = new TablebaseGenerator(ending,
+                    new Tablebases(directory), pool, threads);
+            generator.initialize();
+            int plies = generator.retrograde();
+            generator.write(file);
+            System.out.printf("%s: %s, longest mate %d plies, %.1f s (%d threads)%n", ending,
+                    generator.summary(), plies, (System.nanoTime() - start) / 1e9, threads);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    // The endings (each colouring once) that captures and promotions turn an
+    // ending into, leaving out bare kings
+    static List<String> smallerEndings(String ending)
+    {
+        List<String> endings = new ArrayList<String>();
+        for (int i = 1; i < ending.length(); ++i)
+        {
+            char letter = ending.charAt(i);
+            if (letter == 'K')
+                continue;
+            String captured = ending.substring(0, i) + ending.substring(i + 1);
+            if (captured.length() > 2 && !endings.contains(Tablebases.canonical(captured)))
+                endings.add(Tablebases.canonical(captured));
+            if (letter == 'P')
+            {
+                for (int p = 1; p <= 4; ++p)
+                {
+                    String promoted = Tablebases.canonical(ending.substring(0, i) +
+                            Tablebases.LETTERS.charAt(p) + ending.substring(i + 1));
+                    if (!endings.contains(promoted))
+                        endings.add(promoted);
+                }
+            }
+        }
+        return endings;
+    }
+
+    /*
+       The first pass: marks the positions that can't happen, the mates and
+       the stalemates, counts the moves of the rest that stay in the ending,
+       and looks up the moves that leave it.
+    */
+    private void initialize() throws InterruptedException
+    {
+        final AtomicInteger longest = new AtomicInteger();
+        parallel(new ChunkJob()
+        {
+            public long run(int first, int last)
+            {
+                int[] squares = new int[n];
+                int[] childTypes = new int[n];
+                int[] childColours = new int[n];
+                int[] childSquares = new int[n];
+                int longestHere = 0;
+                for (int index = first; index < last; ++index)
+                {
+                    int side = decode(index, squares);
+                    if (!isLegal(squares, side))
+                    {
+                        values[index] = (byte) Tablebases.ILLEGAL;
+                        continue;
+                    }
+                    longestHere = Math.max(longestHere, initialize(index, squares, side,
+                            childTypes, childColours, childSquares));
+                }
+                longest.accumulateAndGet(longestHere, Math::max);
+                return 0;
+            }
+        });
+        longestCapture = longest.get();
+    }
+
+    // Sets up one legal position. Returns the longest win or loss by a
+    // capture or promotion, or 0.
+    private int initialize(int index, int[] squares, int side,
+                           int[] childTypes, int[] childColours, int[] childSquares)
+    {
+        long occupied = occupancy(squares, -1);
+        long own = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (colours[i] == side)
+                own |= Bitboard.bit(squares[i]);
+        }
+
+        int legalMoves = 0;
+        int quietMoves = 0;
+        int bestCapture = 0;
+        int worstCapture = 0;
+        int longest = 0;    // Of the En Passant captures after a double push
+        for (int i = 0; i < n; ++i)
+        {
+            if (colours[i] != side)
+                continue;
+            int from = squares[i];
+            long targets;
+            if (types[i] == Bitboard.PAWN)
+                targets = pawnPushes(from, side, occupied) |
+                        (Bitboard.PAWN_ATTACKS[side][from] & occupied & ~own);
+            else
+                targets = attacks(types[i], side, from, occupied) & ~own;
+
+            while (targets != 0)
+            {
+                int to = Long.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
+                int captured = pieceOn(squares, to);
+                squares[i] = to;
+                long after = (occupied & ~Bitboard.bit(from)) | Bitboard.bit(to);
+                boolean legal = !isAttacked(squares, squares[side], 1 - side, after, captured);
+                squares[i] = from;
+                if (!legal)
+                    continue;
+
+                ++legalMoves;
+                boolean promotes = types[i] == Bitboard.PAWN &&
+                        (to >> 3) == ((side == Bitboard.WHITE)? 0 : 7);
+                if (captured < 0 && !promotes)
+                {
+                    ++quietMoves;
+                    if (types[i] == Bitboard.PAWN && Math.abs(to - from) == 16)
+                    {
+                        int passant = passantValue(squares, side, i, to,
+                                childTypes, childColours, childSquares);
+                        if (passant != 0 && passants[index] != 0)
+                            throw new IllegalStateException("Two double pushes beside a pawn in " +
+                                    ending);
+                        if (passant != 0)
+                            passants[index] = (byte) passant;
+                        if (passant != HOLD)
+                            longest = Math.max(longest, passant);
+                    }
+                    continue;
+                }
+
+                // The move leaves the ending: look up where it goes
+                int firstType = (promotes)? Bitboard.KNIGHT : types[i];
+                int lastType = (promotes)? Bitboard.QUEEN : types[i];
+                for (int type = firstType; type <= lastType; ++type)
+                {
+                    int value = probeChild(squares, side, i, to, type, captured,
+                            childTypes, childColours, childSquares);
+                    if (value == Tablebases.DRAW)
+                        worstCapture = HOLD;
+                    else if ((value - 1) % 2 == 0)  // The other side is mated
+                        bestCapture = (bestCapture == 0)? value + 1 :
+                                Math.min(bestCapture, value + 1);
+                    else if (worstCapture != HOLD)
+                        worstCapture = Math.max(worstCapture, value + 1);
+                }
+            }
+        }
+
+        if (legalMoves == 0)
+        {
+            boolean inCheck = isAttacked(squares, squares[side], 1 - side, occupied, -1);
+            values[index] = (byte) ((inCheck)? 1 : Tablebases.DRAW);
+            return 0;
+        }
+        values[index] = (byte) UNKNOWN;
+        counts[index] = (byte) quietMoves;
+        bestCaptures[index] = (byte) bestCapture;
+        worstCaptures[index] = (byte) worstCapture;
+        return Math.max(longest, Math.max(bestCapture, (worstCapture == HOLD)? 0 : worstCapture));
+    }
+
+    /*
+       The value a pawn's double push (piece i, now on to) would have if
+       the other side took it En Passant, looked up in the smaller table:
+       one ply more than the position after the capture, HOLD if that's a
+       draw, or 0 if no pawn can take it.
+    */
+    private int passantValue(int[] squares, int side, int i, int to,
+                             int[] childTypes, int[] childColours, int[] childSquares)
+    {
+        int from = squares[i];
+        int passed = (from + to) / 2;
+        for (int j = 0; j < n; ++j)
+        {
+            if (types[j] != Bitboard.PAWN || colours[j] == side ||
+                    (Bitboard.PAWN_ATTACKS[side][passed] & Bitboard.bit(squares[j])) == 0)
+                continue;
+
+            // The capture mustn't leave the other side's king in check
+            int taker = squares[j];
+            squares[i] = to;
+            squares[j] = passed;
+            long after = occupancy(squares, i);
+            boolean legal = !isAttacked(squares, squares[1 - side], side, after, i);
+            if (legal)
+            {
+                int value = probeChild(squares, 1 - side, j, passed, Bitboard.PAWN, i,
+                        childTypes, childColours, childSquares);
+                squares[i] = from;
+                squares[j] = taker;
+                if (value == Tablebases.DRAW)
+                    return HOLD;
+                if (value + 2 > MAX_VALUE)
+                    throw new IllegalStateException(ending + " has mates too long for its table");
+                return value + 2;
+            }
+            squares[i] = from;
+            squares[j] = taker;
+        }
+        return 0;
+    }
+
+    // The value of the position after a move that captures or promotes,
+    // looked up in the smaller tables. Its pieces are put in the child
+    // arrays.
+    private int probeChild(int[] squares, int side, int mover, int to, int type, int captured,
+                           int[] childTypes, int[] childColours, int[] childSquares)
+    {
+        int count = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (i == captured)
+                continue;
+            childTypes[count] = (i == mover)? type : types[i];
+            childColours[count] = colours[i];
+            childSquares[count] = (i == mover)? to : squares[i];
+            ++count;
+        }
+        int value = smaller.probe(childTypes, childColours, childSquares, count, 1 - side);
+        if (value < 0 || value == Tablebases.ILLEGAL)
+            throw new IllegalStateException("No table for a capture or promotion from " + ending);
+        return value;
+    }
+
+    /*
+       The passes after the first, one per ply. Pass d takes back every move
+       into the positions of value d (see Tablebases), to find those of
+       value d + 1, and finds the positions whose captures or promotions
+       make them d + 1. Returns the longest mate found, in plies.
+    */
+    private int retrograde() throws InterruptedException
+    {
+        int value = 1;
+        while (true)
+        {
+            final int done = value;
+            long found = parallel(new ChunkJob()
+            {
+                public long run(int first, int last)
+                {
+                    return pass(done, first, last);
+                }
+            });
+            if (found == 0 && done + 1 >= longestCapture)
+                break;
+            if (done + 1 == MAX_VALUE)
+                throw new IllegalStateException(ending + " has mates too long for its table");
+            ++value;
+        }
+
+        // Nothing left can be forced either way
+        for (int index = 0; index < size; ++index)
+        {
+            if ((values[index] & 0xFF) == UNKNOWN)
+                values[index] = (byte) Tablebases.DRAW;
+        }
+        return longest();
+    }
+
+    // One chunk of a pass. Returns how many positions it found.
+    private long pass(int done, int first, int last)
+    {
+        int next = done + 1;
+        boolean wins = (next - 1) % 2 == 1;
+        int[] squares = new int[n];
+        long found = 0;
+        for (int index = first; index < last; ++index)
+        {
+            int value = values[index] & 0xFF;
+            if (value == done)
+                found += takeBack(index, squares, next, wins);
+            else if (value == UNKNOWN)
+            {
+                int best = bestCaptures[index] & 0xFF;
+                if (!wins && (passants[index] & 0xFF) == next &&
+                        passantCaptureWins(index, squares, done) && countDown(index) == 0 &&
+                        best == 0 && (worstCaptures[index] & 0xFF) <= next &&
+                        BYTES.compareAndSet(values, index, (byte) UNKNOWN, (byte) next))
+                {
+                    ++found;
+                    continue;
+                }
+                boolean decided = (wins)? best == next :
+                        best == 0 && (byte) BYTES.getVolatile(counts, index) == 0 &&
+                        (worstCaptures[index] & 0xFF) == next;
+                if (decided && BYTES.compareAndSet(values, index, (byte) UNKNOWN, (byte) next))
+                    ++found;
+            }
+        }
+        return found;
+    }
+
+    /*
+       Whether a position's double push beside an enemy pawn loses now, the
+       ply the other side's En Passant capture wins on: unless the position
+       after the push was found to win for the other side sooner or on
+       this ply, which counted the push down already (see takeBack).
+    */
+    private boolean passantCaptureWins(int index, int[] squares, int done)
+    {
+        int side = decode(index, squares);
+        long occupied = occupancy(squares, -1);
+        long takers = pawnSquares(squares, 1 - side);
+        for (int i = 0; i < n; ++i)
+        {
+            if (colours[i] != side || types[i] != Bitboard.PAWN)
+                continue;
+            int from = squares[i];
+            long pushes = pawnPushes(from, side, occupied);
+            while (pushes != 0)
+            {
+                int to = Long.numberOfTrailingZeros(pushes);
+                pushes &= pushes - 1;
+                if (Math.abs(to - from) != 16 ||
+                        (Bitboard.PAWN_ATTACKS[side][(from + to) / 2] & takers) == 0)
+                    continue;
+                squares[i] = to;
+                int after = values[Tablebases.index(squares, n, 1 - side)] & 0xFF;
+                squares[i] = from;
+                return !(after <= done && (after - 1) % 2 == 1);
+            }
+        }
+        return true;
+    }
+
+    /*
+       Takes back every move that could have led to a position, by the side
+       that isn't to move in it, other than captures and promotions. If the
+       position is lost, the positions before it are won in one more ply,
+       and if it is won, each counts down its moves not known to lose.
+       Returns how many positions it found.
+    */
+    private long takeBack(int index, int[] squares, int next, boolean wins)
+    {
+        int mover = 1 - decode(index, squares);
+        long occupied = occupancy(squares, -1);
+        long found = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (colours[i] != mover)
+                continue;
+            int to = squares[i];
+            long origins;
+            if (types[i] == Bitboard.PAWN)
+                origins = pawnOrigins(to, mover, occupied);
+            else
+                origins = attacks(types[i], mover, to, occupied) & ~occupied;
+
+            while (origins != 0)
+            {
+                squares[i] = Long.numberOfTrailingZeros(origins);
+                origins &= origins - 1;
+                int before = Tablebases.index(squares, n, mover);
+                if ((values[before] & 0xFF) != UNKNOWN)
+                    continue;
+
+                // A double push the other side could take En Passant
+                int passant = (types[i] == Bitboard.PAWN && Math.abs(to - squares[i]) == 16)?
+                        passants[before] & 0xFF : 0;
+                if (passant != 0 && wins)
+                {
+                    // It wins only if the capture loses too, and no sooner
+                    if (passant == HOLD || (passant - 1) % 2 == 0)
+                        continue;
+                    if (passant > next)
+                    {
+                        int best = bestCaptures[before] & 0xFF;
+                        if (best == 0 || passant < best)
+                            bestCaptures[before] = (byte) passant;
+                        continue;
+                    }
+                }
+                else if (passant != 0 && passant != HOLD && (passant - 1) % 2 == 0 &&
+                        passant < next)
+                    continue;   // Counted down already, when the capture won
+
+                if (wins)
+                {
+                    if (BYTES.compareAndSet(values, before, (byte) UNKNOWN, (byte) next))
+                        ++found;
+                }
+                else if (countDown(before) == 0 &&
+                        bestCaptures[before] == 0 && (worstCaptures[before] & 0xFF) <= next &&
+                        BYTES.compareAndSet(values, before, (byte) UNKNOWN, (byte) next))
+                    ++found;
+            }
+            squares[i] = to;
+        }
+        return found;
+    }
+
+    // Counts down the moves of a position not known to lose, and returns
+    // how many are left. It compares and sets rather than using getAndAdd,
+    // which the JIT of some JDKs (17.0.9) gets wrong on byte arrays.
+    private int countDown(int index)
+    {
+        while (true)
+        {
+            byte count = (byte) BYTES.getVolatile(counts, index);
+            if (BYTES.compareAndSet(counts, index, count, (byte) (count - 1)))
+                return count - 1;
+        }
+    }
+
+    /*
+       Runs a job over every position: the table is split into chunks, which
+       the threads take in turn until there are none left. Returns the sum
+       of what the job returned.
+    */
+    private long parallel(final ChunkJob job) throws InterruptedException
+    {
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicLong total = new AtomicLong();
+        List<Future<?>> workers = new ArrayList<Future<?>>();
+        for (int t = 0; t < threads; ++t)
+        {
+            workers.add(pool.submit(() ->
+            {
+                int first;
+                while ((first = nextChunk.getAndIncrement() * CHUNK) < size)
+                    total.addAndGet(job.run(first, Math.min(size, first + CHUNK)));
+            }));
+        }
+        try
+        {
+            for (Future<?> worker : workers)
+                worker.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        return total.get();
+    }
+
+    // A job over the positions first (inclusive) to last (exclusive)
+    private interface ChunkJob
+    {
+        long run(int first, int last);
+    }
+
+    // Writes the table to a file, under another name until it is complete
+    private void write(Path file) throws IOException
+    {
+        Path partial = file.resolveSibling(file.getFileName() + ".part");
+        Files.write(partial, values);
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Longest mate in the table, in plies
+    private int longest()
+    {
+        int longest = 0;
+        for (int index = 0; index < size; ++index)
+        {
+            int value = values[index] & 0xFF;
+            if (value != Tablebases.ILLEGAL && value != Tablebases.DRAW)
+                longest = Math.max(longest, value - 1);
+        }
+        return longest;
+    }
+
+    // How many legal positions win, draw and lose, for the side to move
+    private String summary()
+    {
+        long wins = 0;
+        long draws = 0;
+        long losses = 0;
+        for (int index = 0; index < size; ++index)
+        {
+            int value = values[index] & 0xFF;
+            if (value == Tablebases.DRAW)
+                ++draws;
+            else if (value != Tablebases.ILLEGAL && (value - 1) % 2 == 1)
+                ++wins;
+            else if (value != Tablebases.ILLEGAL)
+                ++losses;
+        }
+        return String.format("%d wins, %d draws, %d losses", wins, draws, losses);
+    }
+
+    // Puts the pieces of a position on their squares, and returns the side
+    // to move. The opposite of Tablebases.index.
+    private int decode(int index, int[] squares)
+    {
+        for (int i = n - 1; i >= 1; --i)
+        {
+            squares[i] = index & 63;
+            index >>>= 6;
+        }
+        squares[0] = ((index & 31) >> 2) * 8 + (index & 3);
+        return index >>> 5;
+    }
+
+    /*
+       A position can happen if no two pieces share a square, no pawn is on
+       the first or last row, and the side that isn't to move isn't in check
+       (which also keeps the kings apart).
+    */
+    private boolean isLegal(int[] squares, int side)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = 0; j < i; ++j)
+            {
+                if (squares[i] == squares[j])
+                    return false;
+            }
+            int row = squares[i] >> 3;
+            if (types[i] == Bitboard.PAWN && (row == 0 || row == 7))
+                return false;
+        }
+        return !isAttacked(squares, squares[1 - side], side, occupancy(squares, -1), -1);
+    }
+
+    // Returns true if a piece of a colour attacks a square, leaving out the
+    // piece skipped (one just captured), or none if skipped is -1
+    private boolean isAttacked(int[] squares, int sq, int colour, long occupied, int skipped)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            if (colours[i] == colour && i != skipped &&
+                    (attacks(types[i], colour, squares[i], occupied) & Bitboard.bit(sq)) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    // Squares a piece attacks
+    private static long attacks(int type, int colour, int sq, long occupied)
+    {
+        if (type == Bitboard.PAWN)
+            return Bitboard.PAWN_ATTACKS[colour][sq];
+        else if (type == Bitboard.KNIGHT)
+            return Bitboard.KNIGHT_ATTACKS[sq];
+        else if (type == Bitboard.BISHOP)
+            return Bitboard.bishopAttacks(sq, occupied);
+        else if (type == Bitboard.ROOK)
+            return Bitboard.rookAttacks(sq, occupied);
+        else if (type == Bitboard.QUEEN)
+            return Bitboard.bishopAttacks(sq, occupied) | Bitboard.rookAttacks(sq, occupied);
+        return Bitboard.KING_ATTACKS[sq];
+    }
+
+    // Squares a pawn can advance to (white's toward row 0)
+    private static long pawnPushes(int from, int colour, long occupied)
+    {
+        int step = (colour == Bitboard.WHITE)? -8 : 8;
+        int startRow = (colour == Bitboard.WHITE)? 6 : 1;
+        if ((occupied & Bitboard.bit(from + step)) != 0)
+            return 0L;
+        long pushes = Bitboard.bit(from + step);
+        if ((from >> 3) == startRow && (occupied & Bitboard.bit(from + 2 * step)) == 0)
+            pushes |= Bitboard.bit(from + 2 * step);
+        return pushes;
+    }
+
+    // Squares a pawn now on a square could have advanced from, without
+    // capturing
+    private static long pawnOrigins(int to, int colour, long occupied)
+    {
+        int step = (colour == Bitboard.WHITE)? 8 : -8;
+        int from = to + step;
+        int fromRow = from >> 3;
+        if (fromRow == 0 || fromRow == 7 || (occupied & Bitboard.bit(from)) != 0)
+            return 0L;
+        long origins = Bitboard.bit(from);
+        int doubleRow = (colour == Bitboard.WHITE)? 4 : 3;
+        if ((to >> 3) == doubleRow && (occupied & Bitboard.bit(from + step)) == 0)
+            origins |= Bitboard.bit(from + step);
+        return origins;
+    }
+
+    // Which piece is on a square, or -1 if none
+    private int pieceOn(int[] squares, int sq)
+    {
+        for (int i = 0; i < n; ++i)
+        {
+            if (squares[i] == sq)
+                return i;
+        }
+        return -1;
+    }
+
+    // Squares of a colour's pawns
+    private long pawnSquares(int[] squares, int colour)
+    {
+        long pawns = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (types[i] == Bitboard.PAWN && colours[i] == colour)
+                pawns |= Bitboard.bit(squares[i]);
+        }
+        return pawns;
+    }
+
+    // Squares of every piece but the one skipped (or none if -1)
+    private long occupancy(int[] squares, int skipped)
+    {
+        long occupied = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            if (i != skipped)
+                occupied |= Bitboard.bit(squares[i]);
+        }
+        return occupied;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+   Briggs Richardson
+
+   Endgame tablebases: for every position of an ending with up to four
+   pieces (kings included), whether the side to move wins, draws or loses,
+   and in how many plies it mates or is mated, with best play. The search
+   looks positions up here instead of searching them, so an ending like
+   KRK is played perfectly and costs no time at all.
+
+   Each ending has a file of its own, named by its pieces (KQK.tb, KRKP.tb,
+   ...): white's pieces then black's, strongest first. Only one of the two
+   colourings of an ending is stored, the one with the stronger side as
+   white. A position with the colours the other way round is turned over
+   (ranks mirrored, colours and side to move swapped) before looking it up.
+   TablebaseGenerator writes the files.
+
+   A file holds one byte per position:
+      0         draw
+      1 to 253  the side to move mates (if odd) or is mated (if even) in
+                (byte - 1) plies, so 1 is checkmate
+      255       not a legal position
+   Positions are indexed by the side to move, the white king (on columns a
+   to d only: a position with it on e to h is mirrored left to right
+   first), the black king, then white's other pieces and black's, strongest
+   first: ((((side * 32 + white king) * 64 + black king) * 64 + piece) ...
+   En Passant and castling aren't part of a position, so the search doesn't
+   look up positions that have them.
+
+   The files are mapped into memory when the Tablebases are created, rather
+   than read onto the heap, so they cost nothing until they are used, and
+   threads searching at once share the same pages.
+
+   Usage:
+      java Tablebases generate <directory> <ending | 3 | 4> ... [threads <n>]
+      java Tablebases probe <directory> "fen"
+      java Tablebases test <directory>
+   generate writes the endings named (3 or 4 for every ending of that many
+   pieces), and the smaller endings they turn into, that aren't there yet.
+   probe prints the value of a position, and of each of its moves to the
+   side that plays it. test writes KPKP into a directory (an empty one, to
+   test the generator), and checks positions where a double push can be
+   taken En Passant, printing ok or FAILED for each.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Tablebases
+{
+    static final int MAX_PIECES = 4;
+    static final int DRAW = 0;
+    static final int ILLEGAL = 255;
+    static final String EXTENSION = ".tb";
+
+    // Letters of the pieces, strongest first, and their Bitboard types
+    static final String LETTERS = "KQRBNP";
+    static final int[] LETTER_TYPES = {Bitboard.KING, Bitboard.QUEEN, Bitboard.ROOK,
+            Bitboard.BISHOP, Bitboard.KNIGHT, Bitboard.PAWN};
+
+    // The tables are found by their material: a count (0 to 2) of every
+    // piece but the kings, as the digits of a number in base 3
+    private static final int[] MATERIAL_UNITS = new int[12];
+    private static final int MATERIAL_KEYS = 59049; // 3 to the 10th
+
+    private final ByteBuffer[] tables = new ByteBuffer[MATERIAL_KEYS];
+    private final List<String> endings = new ArrayList<String>();
+
+    static
+    {
+        int unit = 1;
+        for (int code = 0; code < 12; ++code)
+        {
+            if (code % 6 != Bitboard.KING)
+            {
+                MATERIAL_UNITS[code] = unit;
+                unit *= 3;
+            }
+        }
+    }
+
+    // Maps every tablebase file in a directory
+    public Tablebases(Path directory) throws IOException
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION))
+        {
+            for (Path file : files)
+            {
+                String name = file.getFileName().toString();
+                String ending = name.substring(0, name.length() - EXTENSION.length());
+                if (!isEnding(ending))
+                    continue;
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+                {
+                    if (channel.size() != size(ending))
+                        throw new IOException(file + " has the wrong size for " + ending);
+                    tables[materialKey(ending)] =
+                            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                endings.add(ending);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length >= 3 && args[0].equals("generate"))
+        {
+            Path directory = Paths.get(args[1]);
+            Files.createDirectories(directory);
+            int threads = Runtime.getRuntime().availableProcessors();
+            List<String> wanted = new ArrayList<String>();
+            for (int i = 2; i < args.length; ++i)
+            {
+                if (args[i].equals("threads") && i + 1 < args.length)
+                    threads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("3") || args[i].equals("4"))
+                    wanted.addAll(allEndings(Integer.parseInt(args[i])));
+                else if (isEnding(args[i]))
+                    wanted.add(canonical(args[i]));
+                else
+                    System.out.println("Not an ending: " + args[i]);
+            }
+            for (String ending : wanted)
+                TablebaseGenerator.generate(ending, directory, threads);
+        }
+        else if (args.length == 3 && args[0].equals("probe"))
+        {
+            Tablebases tablebases = new Tablebases(Paths.get(args[1]));
+            LogicBoard logic = new LogicBoard();
+            logic.setPosition(args[2]);
+            System.out.println("position: " + valueText(logic.probeTablebases(tablebases)));
+            int[] moves = logic.legalMoves();
+            for (int i = 0; i < moves.length; ++i)
+            {
+                String san = logic.moveSan(moves[i]);
+                logic.playMove(moves[i]);
+                System.out.println(san + ": " +
+                        valueText(moverValue(logic.probeTablebases(tablebases))));
+                logic.undo();
+                logic.switchTurn();
+            }
+        }
+        else if (args.length == 2 && args[0].equals("test"))
+        {
+            if (!test(Paths.get(args[1])))
+                System.exit(1);
+        }
+        else
+        {
+            System.out.println("Usage: java Tablebases generate <directory> <ending | 3 | 4> ... " +
+                    "[threads <n>]");
+            System.out.println("       java Tablebases probe <directory> \"fen\"");
+            System.out.println("       java Tablebases test <directory>");
+        }
+    }
+
+    /*
+       Writes KPKP (and the endings it turns into) into a directory, and
+       checks the values of positions whose best defence is a double push
+       the other side can take En Passant, which the table once got wrong.
+       Returns true if every check passes.
+    */
+    private static boolean test(Path directory) throws IOException, InterruptedException
+    {
+        String[] fens = {
+                "8/8/8/8/3p4/8/1K1kP3/8 w - - 0 1",     // e4 dxe3, and the rest lose too
+                "K7/8/8/8/1p6/8/2Pk4/8 w - - 0 1",      // Drawn if it weren't for c4 bxc3
+                "K7/8/8/8/4p3/8/2kP4/8 w - - 0 1"       // d4 exd3 loses sooner than the table has
+        };
+        int[] values = {23, 25, 23};
+
+        Files.createDirectories(directory);
+        TablebaseGenerator.generate("KPKP", directory, Runtime.getRuntime().availableProcessors());
+        Tablebases tablebases = new Tablebases(directory);
+        LogicBoard logic = new LogicBoard();
+        boolean passed = true;
+        for (int i = 0; i < fens.length; ++i)
+        {
+            logic.setPosition(fens[i]);
+            int value = logic.probeTablebases(tablebases);
+            boolean ok = value == values[i];
+            System.out.println(fens[i] + ": " + valueText(value) + ": " +
+                    ((ok)? "ok" : "FAILED (should be " + valueText(values[i]) + ")"));
+            passed &= ok;
+        }
+        return passed;
+    }
+
+    // The endings mapped, like KQK
+    public List<String> getEndings()
+    {
+        return endings;
+    }
+
+    /*
+       Returns the value (see the top) of a position, or -1 if it isn't in
+       the tablebases. The position is n pieces, of the given Bitboard types
+       and colours, on the given squares, in any order, with side to move.
+       Nothing is allocated, so the search can call it at every node.
+    */
+    int probe(int[] types, int[] colours, int[] squares, int n, int side)
+    {
+        if (n > MAX_PIECES)
+            return -1;
+        if (n == 2)
+            return DRAW;    // Bare kings
+
+        int key = 0;
+        int flippedKey = 0;
+        for (int i = 0; i < n; ++i)
+        {
+            key += MATERIAL_UNITS[colours[i] * 6 + types[i]];
+            flippedKey += MATERIAL_UNITS[(1 - colours[i]) * 6 + types[i]];
+        }
+        boolean flip = false;
+        ByteBuffer table = tables[key];
+        if (table == null)
+        {
+            flip = true;
+            table = tables[flippedKey];
+            if (table == null)
+                return -1;
+        }
+
+        // The kings, and the others in the order of the file's ending
+        int whiteKing = 0;
+        int blackKing = 0;
+        int first = -1;
+        int second = -1;
+        for (int i = 0; i < n; ++i)
+        {
+            int colour = (flip)? 1 - colours[i] : colours[i];
+            if (types[i] != Bitboard.KING)
+            {
+                if (first < 0)
+                    first = i;
+                else
+                    second = i;
+            }
+            else if (colour == Bitboard.WHITE)
+                whiteKing = (flip)? squares[i] ^ 56 : squares[i];
+            else
+                blackKing = (flip)? squares[i] ^ 56 : squares[i];
+        }
+        if (second >= 0 && order(types[second], colours[second], flip) <
+                order(types[first], colours[first], flip))
+        {
+            int swap = first;
+            first = second;
+            second = swap;
+        }
+
+        int mirror = ((whiteKing & 7) > 3)? 7 : 0;
+        int flipSquare = (flip)? 56 : 0;
+        int index = (flip)? 1 - side : side;
+        index = index * 32 + ((whiteKing ^ mirror) >> 3) * 4 + ((whiteKing ^ mirror) & 7);
+        index = index * 64 + (blackKing ^ mirror);
+        index = index * 64 + (squares[first] ^ flipSquare ^ mirror);
+        if (second >= 0)
+            index = index * 64 + (squares[second] ^ flipSquare ^ mirror);
+        return table.get(index) & 0xFF;
+    }
+
+    // Where a piece that isn't a king comes in an ending: white's before
+    // black's, strongest first
+    private static int order(int type, int colour, boolean flip)
+    {
+        return ((flip)? 1 - colour : colour) * 6 + LETTERS.indexOf(letter(type));
+    }
+
+    // Index of a position, with its pieces in the order of its ending, as
+    // above (the generator's positions are always in this order)
+    static int index(int[] squares, int n, int side)
+    {
+        int mirror = ((squares[0] & 7) > 3)? 7 : 0;
+        int index = side * 32 + ((squares[0] ^ mirror) >> 3) * 4 + ((squares[0] ^ mirror) & 7);
+        for (int i = 1; i < n; ++i)
+            index = index * 64 + (squares[i] ^ mirror);
+        return index;
+    }
+
+    // Number of positions (bytes) in the table of an ending
+    static int size(String ending)
+    {
+        return 2 * 32 * 64 << (6 * (ending.length() - 2));
+    }
+
+    // Returns true if a name is an ending of 3 or 4 pieces, like KQK
+    static boolean isEnding(String ending)
+    {
+        if (ending.length() < 3 || ending.length() > MAX_PIECES || ending.charAt(0) != 'K')
+            return false;
+        int kings = 0;
+        for (int i = 0; i < ending.length(); ++i)
+        {
+            int letter = LETTERS.indexOf(ending.charAt(i));
+            if (letter < 0)
+                return false;
+            if (letter == 0)
+                ++kings;
+        }
+        return kings == 2;
+    }
+
+    // The name of the stored colouring of an ending, with each side's pieces
+    // strongest first: KKQ and KRKQ become KQK and KQKR
+    static String canonical(String ending)
+    {
+        int black = ending.indexOf('K', 1);
+        String whitePieces = sorted(ending.substring(0, black));
+        String blackPieces = sorted(ending.substring(black));
+        return (stronger(blackPieces, whitePieces))? blackPieces + whitePieces :
+                whitePieces + blackPieces;
+    }
+
+    // One side's pieces, strongest first
+    private static String sorted(String pieces)
+    {
+        char[] letters = pieces.toCharArray();
+        for (int i = 1; i < letters.length; ++i)
+        {
+            for (int j = i; j > 0 &&
+                    LETTERS.indexOf(letters[j]) < LETTERS.indexOf(letters[j - 1]); --j)
+            {
+                char swap = letters[j];
+                letters[j] = letters[j - 1];
+                letters[j - 1] = swap;
+            }
+        }
+        return new String(letters);
+    }
+
+    // More pieces is stronger, then stronger pieces, taken in order
+    private static boolean stronger(String a, String b)
+    {
+        if (a.length() != b.length())
+            return a.length() > b.length();
+        for (int i = 0; i < a.length(); ++i)
+        {
+            int difference = LETTERS.indexOf(a.charAt(i)) - LETTERS.indexOf(b.charAt(i));
+            if (difference != 0)
+                return difference < 0;
+        }
+        return false;
+    }
+
+    static int materialKey(String ending)
+    {
+        int key = 0;
+        int colour = Bitboard.WHITE;
+        for (int i = 1; i < ending.length(); ++i)
+        {
+            char letter = ending.charAt(i);
+            if (letter == 'K')
+                colour = Bitboard.BLACK;
+            else
+                key += MATERIAL_UNITS[colour * 6 + LETTER_TYPES[LETTERS.indexOf(letter)]];
+        }
+        return key;
+    }
+
+    static char letter(int type)
+    {
+        for (int i = 0; i < LETTER_TYPES.length; ++i)
+        {
+            if (LETTER_TYPES[i] == type)
+                return LETTERS.charAt(i);
+        }
+        return '?';
+    }
+
+    // Every ending of the given number of pieces, each colouring once
+    static List<String> allEndings(int pieces)
+    {
+        List<String> all = new ArrayList<String>();
+        String others = LETTERS.substring(1);
+        if (pieces == 3)
+        {
+            for (int i = 0; i < others.length(); ++i)
+                all.add("K" + others.charAt(i) + "K");
+        }
+        else if (pieces == 4)
+        {
+            for (int i = 0; i < others.length(); ++i)
+            {
+                for (int j = i; j < others.length(); ++j)
+                {
+                    all.add("K" + others.charAt(i) + others.charAt(j) + "K");
+                    String opposed = canonical("K" + others.charAt(i) + "K" + others.charAt(j));
+                    if (!all.contains(opposed))
+                        all.add(opposed);
+                }
+            }
+        }
+        return all;
+    }
+
+    // Turns the value of the position after a move into the value of the
+    // move to the side that played it: a win for one side is a loss for
+    // the other, one ply further off
+    private static int moverValue(int value)
+    {
+        return (value > DRAW && value < ILLEGAL)? value + 1 : value;
+    }
+
+    // Writes a value, like "win in 7 plies"
+    private static String valueText(int value)
+    {
+        if (value < 0)
+            return "not in the tablebases";
+        if (value == DRAW)
+            return "draw";
+        if (value == ILLEGAL)
+            return "illegal";
+        int plies = value - 1;
+        return ((plies % 2 == 1)? "win" : "loss") + " in " + plies + " plies";
+    }
+}
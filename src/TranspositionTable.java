@@ -0,0 +1,142 @@
+/*
+   Briggs Richardson
+
+   The transposition table remembers the result of searching a position, so
+   that when minimax reaches the same position again through a different
+   order of moves, it can reuse the result instead of searching it again.
+
+   Positions are identified by their Zobrist key (see Bitboard). The table
+   is a fixed number of buckets, each holding two entries:
+      - a depth-preferred slot, only replaced by a deeper search of any
+        position, or by anything once the entry is from an older search
+      - an always-replace slot, which takes whatever the first slot refused
+
+   Each entry is two longs. The data long packs the score (as a float), the
+   depth, the bound type, the generation (which computerTurn the entry is
+   from) and the best move. The key long is stored XORed with the data, so
+   a half-written entry never matches a probe.
+*/
+
+public class TranspositionTable
+{
+    // Bound types: the stored score is exact, at least, or at most the
+    // true score of the position
+    public static final int EXACT = 1;
+    public static final int LOWER = 2;
+    public static final int UPPER = 3;
+
+    // Default size of the table (entries), 16 bytes each
+    public static final int DEFAULT_ENTRIES = 1 << 20;
+
+    private long[] keys;
+    private long[] data;
+    private int bucketMask;
+    private int generation;
+
+    // Creates a table holding (at least) the given number of entries,
+    // rounded up to a power of two
+    public TranspositionTable(int entries)
+    {
+        int size = 2;
+        while (size < entries)
+            size *= 2;
+
+        keys = new long[size];
+        data = new long[size];
+        bucketMask = size / 2 - 1;
+        generation = 0;
+    }
+
+    // Called before every search, so entries from earlier searches can be
+    // told apart (and replaced) from the ones of the current search
+    public void newSearch()
+    {
+        generation = (generation + 1) & 0x3F;
+    }
+
+    // Empties the table
+    public void clear()
+    {
+        for (int i = 0; i < keys.length; ++i)
+        {
+            keys[i] = 0L;
+            data[i] = 0L;
+        }
+        generation = 0;
+    }
+
+    // Returns the data of the entry stored for the key, or 0 if there is none
+    public long probe(long key)
+    {
+        int slot = bucket(key);
+        for (int i = slot; i < slot + 2; ++i)
+        {
+            long entry = data[i];
+            if ((keys[i] ^ entry) == key && entry != 0)
+                return entry;
+        }
+        return 0L;
+    }
+
+    // Stores the result of a search of the position with the given key
+    public void store(long key, int depth, int bound, double score, int move)
+    {
+        int slot = bucket(key);
+        long entry = pack(depth, bound, score, move);
+
+        long deep = data[slot];
+        boolean sameKey = (keys[slot] ^ deep) == key;
+        if (deep == 0 || sameKey || generation(deep) != generation ||
+                depth >= depth(deep))
+        {
+            keys[slot] = key ^ entry;
+            data[slot] = entry;
+        }
+        else
+        {
+            keys[slot + 1] = key ^ entry;
+            data[slot + 1] = entry;
+        }
+    }
+
+    private int bucket(long key)
+    {
+        return ((int) (key >>> 32) & bucketMask) * 2;
+    }
+
+    private long pack(int depth, int bound, double score, int move)
+    {
+        return ((long) Float.floatToIntBits((float) score) << 32) |
+                ((long) (depth & 0xFF) << 24) |
+                ((long) bound << 22) |
+                ((long) generation << 16) |
+                (move & 0xFFFF);
+    }
+
+    // The following decode the fields of a probed entry
+
+    public static double score(long entry)
+    {
+        return Float.intBitsToFloat((int) (entry >>> 32));
+    }
+
+    public static int depth(long entry)
+    {
+        return (int) (entry >>> 24) & 0xFF;
+    }
+
+    public static int bound(long entry)
+    {
+        return (int) (entry >>> 22) & 0x3;
+    }
+
+    public static int move(long entry)
+    {
+        return (int) entry & 0xFFFF;
+    }
+
+    private static int generation(long entry)
+    {
+        return (int) (entry >>> 16) & 0x3F;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+   Briggs Richardson
+
+   UciEngine runs the computer player without the GUI. It talks the UCI
+   (Universal Chess Interface) protocol over standard input and output, so
+   a chess GUI or a testing tool can play against it, or use it to analyse.
+   Nothing here touches AWT or Swing, so it runs on machines without a
+   display, and starts faster than the GUI does.
+
+   Commands it understands:
+      uci, isready, ucinewgame, quit
+      setoption name Threads value <n>
+      setoption name BookFile value <Polyglot book, or <empty> for none>
+      setoption name TablebasePath value <directory of tablebases, or <empty>>
+      position (startpos | fen <fen>) [moves <move> ...]
+      go [depth <n>] [nodes <n>] [movetime <ms>] [wtime <ms>] [btime <ms>]
+         [winc <ms>] [binc <ms>] [movestogo <n>] [infinite]
+      stop
+
+   Other go words, like ponder, mate <n> and searchmoves <move> ..., are
+   skipped, and so is a word that should be a number but isn't.
+
+   The search runs on a thread of its own, so a stop can be read while it
+   is thinking. When it ends, the statistics of the search are sent as an
+   info line, then the move it chose.
+
+   Usage: java UciEngine
+*/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+public class UciEngine
+{
+    private static final long FOREVER = 365L * 24 * 60 * 60 * 1000; // milliseconds
+    private static final int MAX_DEPTH = 64;
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+    private static final long MOVE_OVERHEAD = 50; // Milliseconds kept for sending the move
+    private static final int MAX_THREADS = 64;
+
+    // The go words followed by a number, and the rest it knows of
+    private static final List<String> GO_NUMBERS = Arrays.asList("depth", "nodes",
+            "movetime", "wtime", "btime", "winc", "binc", "movestogo", "mate");
+    private static final List<String> GO_FLAGS = Arrays.asList("infinite", "ponder",
+            "searchmoves");
+
+    private final LogicBoard logic = new LogicBoard();
+    private OpeningBook book;       // The book it plays from, or null
+    private Thread searcher;        // Thread of the running search, or null
+    private boolean infinite;       // Hold the move back until stop (guarded by this)
+
+    public static void main(String[] args) throws IOException
+    {
+        new UciEngine().run();
+    }
+
+    // Reads and carries out commands until quit, or the end of the input
+    public void run() throws IOException
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            String[] words = line.trim().split("\\s+");
+            String command = words[0];
+
+            if (command.equals("uci"))
+            {
+                send("id name Chess");
+                send("id author Briggs Richardson");
+                send("option name Threads type spin default 1 min 1 max " + MAX_THREADS);
+                send("option name BookFile type string default <empty>");
+                send("option name TablebasePath type string default <empty>");
+                send("uciok");
+            }
+            else if (command.equals("isready"))
+                send("readyok");
+            else if (command.equals("ucinewgame"))
+            {
+                finishSearch();
+                logic.clearTable();
+                logic.initializeGame();
+            }
+            else if (command.equals("setoption"))
+            {
+                finishSearch();
+                setOption(words);
+            }
+            else if (command.equals("position"))
+            {
+                finishSearch();
+                position(words);
+            }
+            else if (command.equals("go"))
+            {
+                finishSearch();
+                go(words);
+            }
+            else if (command.equals("stop"))
+                finishSearch();
+            else if (command.equals("quit"))
+                break;
+        }
+        finishSearch();
+    }
+
+    // setoption name Threads value <n>
+    // setoption name BookFile value <file>
+    // setoption name TablebasePath value <directory>
+    private void setOption(String[] words)
+    {
+        if (words.length == 5 && words[2].equalsIgnoreCase("Threads"))
+        {
+            try
+            {
+                int n = Integer.parseInt(words[4]);
+                logic.setThreads(Math.max(1, Math.min(n, MAX_THREADS)));
+            }
+            catch (NumberFormatException e)
+            {
+                send("info string Threads must be a number, not " + words[4]);
+            }
+        }
+        else if (words.length >= 5 && words[2].equalsIgnoreCase("BookFile"))
+        {
+            // The file name may have spaces in it
+            StringBuilder file = new StringBuilder(words[4]);
+            for (int i = 5; i < words.length; ++i)
+                file.append(' ').append(words[i]);
+            setBook(file.toString());
+        }
+        else if (words.length >= 5 && words[2].equalsIgnoreCase("TablebasePath"))
+        {
+            StringBuilder directory = new StringBuilder(words[4]);
+            for (int i = 5; i < words.length; ++i)
+                directory.append(' ').append(words[i]);
+            setTablebases(directory.toString());
+        }
+    }
+
+    // Opens the opening book the computer plays from, in place of the one
+    // before (if any)
+    private void setBook(String file)
+    {
+        try
+        {
+            if (book != null)
+                book.close();
+            book = null;
+            if (!file.equals("<empty>"))
+                book = new OpeningBook(Paths.get(file));
+        }
+        catch (IOException e)
+        {
+            send("info string can't open book " + file + ": " + e.getMessage());
+        }
+        logic.setBook(book);
+    }
+
+    // Maps the endgame tablebases in a directory, for the search to look
+    // endings up in
+    private void setTablebases(String directory)
+    {
+        Tablebases tablebases = null;
+        try
+        {
+            if (!directory.equals("<empty>"))
+                tablebases = new Tablebases(Paths.get(directory));
+        }
+        catch (IOException e)
+        {
+            send("info string can't open tablebases " + directory + ": " + e.getMessage());
+        }
+        logic.setTablebases(tablebases);
+    }
+
+    // position (startpos | fen <fen>) [moves <move> ...]
+    private void position(String[] words)
+    {
+        int i = 2;
+        if (words.length > 1 && words[1].equals("fen"))
+        {
+            StringBuilder fen = new StringBuilder();
+            for (; i < words.length && !words[i].equals("moves"); ++i)
+                fen.append(words[i]).append(' ');
+            try
+            {
+                logic.setPosition(fen);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // A FEN read part way leaves the board half cleared, so
+                // start over rather than search from it, or play its moves
+                send("info string invalid fen " + fen.toString().trim());
+                logic.initializeGame();
+                return;
+            }
+        }
+        else
+            logic.initializeGame();
+
+        if (i < words.length && words[i].equals("moves"))
+        {
+            for (++i; i < words.length; ++i)
+            {
+                if (!play(words[i]))
+                {
+                    send("info string illegal move " + words[i]);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Plays a move written like e2e4 or e7e8q, the same way the ChessGUI
+    // does. Returns false if it isn't legal.
+    private boolean play(String move)
+    {
+        if (move.length() < 4)
+            return false;
+        int c1 = move.charAt(0) - 'a';
+        int r1 = '8' - move.charAt(1);
+        int c2 = move.charAt(2) - 'a';
+        int r2 = '8' - move.charAt(3);
+        if (r1 < 0 || r1 > 7 || c1 < 0 || c1 > 7 || r2 < 0 || r2 > 7 || c2 < 0 || c2 > 7)
+            return false;
+        if (!logic.isValid(r1, c1, r2, c2))
+            return false;
+
+        // The letter after the squares is the piece a pawn becomes
+        int promotion = Bitboard.QUEEN;
+        if (move.length() > 4 && "nbrq".indexOf(move.charAt(4)) >= 0)
+            promotion = Bitboard.KNIGHT + "nbrq".indexOf(move.charAt(4));
+
+        logic.setFirstMove(r1, c1);
+        logic.updateBoard(r1, c1, r2, c2, promotion);
+        logic.switchTurn();
+        return true;
+    }
+
+    // go: sets the limits of the search and starts it on its own thread
+    private void go(String[] words)
+    {
+        boolean white = logic.getIsWhiteTurn();
+        int depth = MAX_DEPTH;
+        long nodes = Long.MAX_VALUE;
+        long moveTime = 0;
+        long time = 0;
+        long increment = 0;
+        int movesToGo = DEFAULT_MOVES_TO_GO;
+        boolean forever = false;
+
+        for (int i = 1; i < words.length; ++i)
+        {
+            String word = words[i];
+            if (word.equals("infinite"))
+                forever = true;
+            else if (word.equals("searchmoves"))
+            {
+                // It always searches every move, so skip the moves listed
+                while (i + 1 < words.length && !GO_NUMBERS.contains(words[i + 1]) &&
+                        !GO_FLAGS.contains(words[i + 1]))
+                    ++i;
+            }
+            if (!GO_NUMBERS.contains(word) || i + 1 == words.length)
+                continue;    // ponder, or a word it doesn't know
+
+            long value;
+            try
+            {
+                value = Long.parseLong(words[i + 1]);
+            }
+            catch (NumberFormatException e)
+            {
+                send("info string " + word + " must be followed by a number, not " + words[i + 1]);
+                continue;
+            }
+            ++i;
+            if (word.equals("depth"))
+                depth = (int) value;
+            else if (word.equals("nodes"))
+                nodes = value;
+            else if (word.equals("movetime"))
+                moveTime = value;
+            else if (word.equals((white)? "wtime" : "btime"))
+                time = value;
+            else if (word.equals((white)? "winc" : "binc"))
+                increment = value;
+            else if (word.equals("movestogo"))
+                movesToGo = (int) Math.max(1, value);
+        }
+
+        // With a clock, spend an even share of the time left on each move
+        // to come, plus most of the increment
+        long budget = FOREVER;
+        if (moveTime > 0)
+            budget = moveTime;
+        else if (time > 0)
+            budget = Math.max(1, Math.min(time / movesToGo + increment * 3 / 4,
+                    time - MOVE_OVERHEAD));
+
+        if (logic.noMovesLeft())
+        {
+            send("bestmove 0000");
+            return;
+        }
+
+        logic.setMaxDepth(depth);
+        logic.setNodeLimit(nodes);
+        logic.setTimeBudget(budget);
+        synchronized (this)
+        {
+            infinite = forever;
+        }
+
+        searcher = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                search();
+            }
+        });
+        searcher.start();
+    }
+
+    // Run by the search thread: searches, and sends the move once it may
+    private void search()
+    {
+        logic.computerTurn();
+
+        // go infinite must not answer before it is told to stop
+        synchronized (this)
+        {
+            while (infinite)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+            }
+        }
+
+        // Sent from the packed move, with the letter of the piece a pawn
+        // promotes to
+        SearchStats stats = logic.getSearchStats();
+        String move = LogicBoard.moveText(stats.getMove());
+
+        send("info depth " + stats.getDepth() + " seldepth " + stats.getSelectiveDepth() +
+                " score " + scoreText(stats.getScore()) + " nodes " + stats.getNodes() +
+                " nps " + (long) stats.getNodesPerSecond() + " tbhits " + stats.getTablebaseHits() +
+                " time " + stats.getElapsedNanos() / 1000000 + " pv " + move);
+        send("bestmove " + move);
+    }
+
+    // Stops the running search (if any), and waits for it to send its move
+    private void finishSearch()
+    {
+        if (searcher == null)
+            return;
+
+        synchronized (this)
+        {
+            infinite = false;
+            notifyAll();
+        }
+        // The search may not have started yet when stop is first called, in
+        // which case it would clear the stop, so keep stopping until it ends
+        while (searcher.isAlive())
+        {
+            logic.stop();
+            try
+            {
+                searcher.join(10);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        searcher = null;
+    }
+
+    // Writes a score (from white's side) from the side to move's side, in
+    // centipawns, or as moves until mate
+    private String scoreText(double score)
+    {
+        if (!logic.getIsWhiteTurn())
+            score = -score;
+
+        if (Math.abs(score) > LogicBoard.MATE_BOUND)
+        {
+            long plies = Math.round(LogicBoard.MATE - Math.abs(score));
+            long moves = (plies + 1) / 2;
+            return "mate " + ((score > 0)? moves : -moves);
+        }
+        return "cp " + Math.round(score * 100 / LogicBoard.PIECE_VALUES[Bitboard.PAWN]);
+    }
+
+    private static synchronized void send(String message)
+    {
+        System.out.println(message);
+        System.out.flush();
+    }
+}